@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.index.mapper.opennlp;
+
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.analysis.AnalysisService;
+import org.elasticsearch.index.codec.postingsformat.PostingsFormatService;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.DocumentMapperParser;
+import org.elasticsearch.index.mapper.ParsedDocument;
+import org.elasticsearch.index.similarity.SimilarityLookupService;
+import org.elasticsearch.service.opennlp.OpenNlpService;
+import org.elasticsearch.service.opennlp.SyntheticCorpus;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Measures OpenNlpMapper.parse() including the indexing of the content and the entity sub fields
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperParseBenchmark {
+
+    @Param({ "100", "1000", "10000" })
+    public int tokenCount;
+
+    @Param({ "5", "25" })
+    public int entityEvery;
+
+    /* the entity types of the field, all runs every model */
+    @Param({ "all", "location" })
+    public String entities;
+
+    private OpenNlpService openNlpService;
+    private DocumentMapper docMapper;
+    private BytesReference source;
+
+    @Setup
+    public void setup() throws Exception {
+        Index index = new Index("benchmark");
+        AnalysisService analysisService = new AnalysisService(index);
+        DocumentMapperParser mapperParser = new DocumentMapperParser(index, analysisService, new PostingsFormatService(index),
+                new SimilarityLookupService(index, ImmutableSettings.Builder.EMPTY_SETTINGS));
+
+        openNlpService = new OpenNlpService(SyntheticCorpus.settings());
+        openNlpService.start();
+        mapperParser.putTypeParser(OpenNlpMapper.CONTENT_TYPE, new OpenNlpMapper.TypeParser(analysisService, openNlpService));
+
+        XContentBuilder field = jsonBuilder().startObject().field("type", OpenNlpMapper.CONTENT_TYPE);
+        if (!"all".equals(entities)) {
+            field.array("entities", Strings.commaDelimitedListToStringArray(entities));
+        }
+        String mapping = "{\"article\":{\"properties\":{\"content\":" + field.endObject().string() + "}}}";
+        docMapper = mapperParser.parse(mapping);
+
+        String document = SyntheticCorpus.document(tokenCount, tokenCount, entityEvery);
+        source = jsonBuilder().startObject().field("_id", 1).field("content", document).endObject().bytes();
+    }
+
+    @TearDown
+    public void tearDown() {
+        openNlpService.close();
+    }
+
+    @Benchmark
+    public ParsedDocument parse() {
+        return docMapper.parse(source);
+    }
+}
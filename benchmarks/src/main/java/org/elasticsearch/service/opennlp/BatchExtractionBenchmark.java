@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import org.elasticsearch.common.collect.Lists;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares extracting the entities of many short documents one by one with extracting them in one batch,
+ * which runs every model over all documents before switching to the next model
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchExtractionBenchmark {
+
+    @Param({ "10", "100" })
+    public int documentCount;
+
+    @Param({ "50", "500" })
+    public int tokenCount;
+
+    private OpenNlpService openNlpService;
+    private List<String> documents = Lists.newArrayList();
+
+    @Setup
+    public void setup() throws Exception {
+        openNlpService = new OpenNlpService(SyntheticCorpus.settings());
+        openNlpService.start();
+        for (int i = 0; i < documentCount; i++) {
+            documents.add(SyntheticCorpus.document(i, tokenCount, 10));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        openNlpService.close();
+    }
+
+    @Benchmark
+    public int perDocument() {
+        int count = 0;
+        for (String document : documents) {
+            count += openNlpService.tokenize(document).size();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int batch() {
+        int count = 0;
+        for (Map<String, Set<String>> namedEntities : openNlpService.tokenizeBatch(documents)) {
+            count += namedEntities.size();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import opennlp.tools.util.Span;
+import org.elasticsearch.service.opennlp.models.TextAnnotation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the SpanConflictResolver with the list based algorithm used before, on
+ * entity dense documents with thousands of overlapping candidates
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConflictResolutionBenchmark {
+
+    private static final String[] TYPES = { "date", "location", "name" };
+
+    @Param({ "1000", "5000", "20000" })
+    public int candidateCount;
+
+    private List<TextAnnotation> textAnnotations = new ArrayList<TextAnnotation>();
+    private SpanConflictResolver candidates = new SpanConflictResolver();
+    private SpanConflictResolver resolver = new SpanConflictResolver();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(candidateCount);
+        for (int i = 0; i < candidateCount; i++) {
+            // roughly one candidate per token, so most candidates overlap with others
+            int start = random.nextInt(candidateCount);
+            int end = start + 1 + random.nextInt(3);
+            double prob = random.nextDouble();
+            int typeId = random.nextInt(TYPES.length);
+            textAnnotations.add(new TextAnnotation(TYPES[typeId], new Span(start, end, TYPES[typeId]), prob));
+            candidates.add(start, end, prob, typeId);
+        }
+    }
+
+    @Benchmark
+    public int resolver() {
+        resolver.clear();
+        resolver.addAll(candidates);
+        return resolver.resolve();
+    }
+
+    @Benchmark
+    public int legacy() {
+        List<TextAnnotation> allTextAnnotations = new ArrayList<TextAnnotation>(textAnnotations);
+        legacyRemoveConflicts(allTextAnnotations);
+        return allTextAnnotations.size();
+    }
+
+    /* The algorithm OpenNlpService used before, copied from the Taming Text book */
+    private static void legacyRemoveConflicts(List<TextAnnotation> allTextAnnotations) {
+        Collections.sort(allTextAnnotations);
+        List<TextAnnotation> stack = new ArrayList<TextAnnotation>();
+        stack.add(allTextAnnotations.get(0));
+        for (int ai = 1; ai < allTextAnnotations.size(); ai++) {
+            TextAnnotation curr = allTextAnnotations.get(ai);
+            boolean deleteCurr = false;
+            for (int ki = stack.size() - 1; ki >= 0; ki--) {
+                TextAnnotation prev = stack.get(ki);
+                if (prev.getSpan().equals(curr.getSpan())) {
+                    if (prev.getProb() > curr.getProb()) {
+                        deleteCurr = true;
+                        break;
+                    } else {
+                        allTextAnnotations.remove(stack.remove(ki));
+                        ai--;
+                    }
+                } else if (prev.getSpan().intersects(curr.getSpan())) {
+                    if (prev.getProb() > curr.getProb()) {
+                        deleteCurr = true;
+                        break;
+                    } else {
+                        allTextAnnotations.remove(stack.remove(ki));
+                        ai--;
+                    }
+                } else if (prev.getSpan().contains(curr.getSpan())) {
+                    break;
+                } else {
+                    stack.remove(ki);
+                }
+            }
+            if (deleteCurr) {
+                allTextAnnotations.remove(ai);
+                ai--;
+                deleteCurr = false;
+            } else {
+                stack.add(curr);
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.tokenize.SimpleTokenizer;
+import opennlp.tools.util.Span;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares finding names with the DefaultNameContextGenerator of opennlp and the BufferedNameContextGenerator.
+ * Run with <code>-prof gc</code>, the allocation rate per operation is the main difference
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextGenerationBenchmark {
+
+    @Param({ "opennlp", "buffered" })
+    public String contextGenerator;
+
+    @Param({ "25", "1000" })
+    public int tokenCount;
+
+    private NameFinderME finder;
+    private String[] tokens;
+
+    @Setup
+    public void setup() throws Exception {
+        TokenNameFinderModel model = SyntheticCorpus.train("name");
+        if ("buffered".equals(contextGenerator)) {
+            finder = new NameFinderME(model.getNameFinderModel(), new BufferedNameContextGenerator(), NameFinderME.DEFAULT_BEAM_SIZE);
+        } else {
+            finder = new NameFinderME(model);
+        }
+        tokens = SimpleTokenizer.INSTANCE.tokenize(SyntheticCorpus.document(tokenCount, tokenCount, 5));
+    }
+
+    @Benchmark
+    public Span[] find() {
+        try {
+            return finder.find(tokens);
+        } finally {
+            finder.clearAdaptiveData();
+        }
+    }
+}
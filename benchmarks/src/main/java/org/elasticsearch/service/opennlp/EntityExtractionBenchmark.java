@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.tokenize.SimpleTokenizer;
+import opennlp.tools.util.Span;
+import org.elasticsearch.common.collect.Maps;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the single steps of OpenNlpService.tokenize() as well as the whole call.
+ * Run with <code>-prof gc</code> to get the allocation rate next to the throughput
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityExtractionBenchmark {
+
+    @Param({ "100", "1000", "10000" })
+    public int tokenCount;
+
+    @Param({ "5", "25" })
+    public int entityEvery;
+
+    private OpenNlpService openNlpService;
+    private Map<String, TokenNameFinderModel> models = Maps.newHashMap();
+    private String document;
+    private String[] tokens;
+    private TokenOffsets tokenOffsets = new TokenOffsets();
+    private String[] types;
+    private SpanConflictResolver candidates;
+    private SpanConflictResolver resolved;
+
+    @Setup
+    public void setup() throws Exception {
+        openNlpService = new OpenNlpService(SyntheticCorpus.settings());
+        openNlpService.start();
+        for (String type : SyntheticCorpus.TYPES) {
+            models.put(type, SyntheticCorpus.train(type));
+        }
+
+        document = SyntheticCorpus.document(tokenCount, tokenCount, entityEvery);
+        SimpleContentTokenizer.INSTANCE.tokenize(document, tokenOffsets);
+        tokens = tokenOffsets.toStrings(document);
+
+        types = models.keySet().toArray(new String[models.size()]);
+        Arrays.sort(types);
+        candidates = new SpanConflictResolver();
+        for (int typeId = 0; typeId < types.length; typeId++) {
+            NameFinderME finder = new NameFinderME(models.get(types[typeId]));
+            Span[] spans = finder.find(tokens);
+            double[] probs = finder.probs(spans);
+            for (int i = 0; i < spans.length; i++) {
+                candidates.add(spans[i].getStart(), spans[i].getEnd(), probs[i], typeId);
+            }
+        }
+        resolved = new SpanConflictResolver();
+        resolved.addAll(candidates);
+        resolved.resolve();
+    }
+
+    @TearDown
+    public void tearDown() {
+        openNlpService.close();
+    }
+
+    @Benchmark
+    public String[] tokenizer() {
+        return SimpleTokenizer.INSTANCE.tokenize(document);
+    }
+
+    /**
+     * The tokenizer of the service, with the offsets in a reused buffer and the strings created from them
+     */
+    @Benchmark
+    public String[] contentTokenizer(TokenizerState state) {
+        state.offsets.clear();
+        SimpleContentTokenizer.INSTANCE.tokenize(document, state.offsets);
+        return state.offsets.toStrings(document);
+    }
+
+    @Benchmark
+    public double[] findName(FinderState state) {
+        return state.find("name", tokens);
+    }
+
+    @Benchmark
+    public double[] findDate(FinderState state) {
+        return state.find("date", tokens);
+    }
+
+    @Benchmark
+    public double[] findLocation(FinderState state) {
+        return state.find("location", tokens);
+    }
+
+    /**
+     * removeConflicts() modifies its input, so copying the candidates is part of the measurement
+     */
+    @Benchmark
+    public SpanConflictResolver removeConflicts(ResolverState state) {
+        state.resolver.clear();
+        state.resolver.addAll(candidates);
+        openNlpService.removeConflicts(state.resolver);
+        return state.resolver;
+    }
+
+    @Benchmark
+    public EntitySpans entitySpans() {
+        EntitySpans entities = new EntitySpans(types);
+        openNlpService.convertToEntitySpans(tokenOffsets, 0, resolved, entities);
+        return entities;
+    }
+
+    @Benchmark
+    public Map<String, Set<String>> entitySets() {
+        EntitySpans entities = new EntitySpans(types);
+        openNlpService.convertToEntitySpans(tokenOffsets, 0, resolved, entities);
+        return entities.toNamedEntities(document);
+    }
+
+    @Benchmark
+    public Map<String, Set<String>> tokenize() {
+        return openNlpService.tokenize(document);
+    }
+
+    /**
+     * The whole call from several indexing threads, which share the models but not the pooled finders
+     */
+    @Benchmark
+    @Threads(4)
+    public Map<String, Set<String>> tokenizeConcurrently() {
+        return openNlpService.tokenize(document);
+    }
+
+    @State(Scope.Thread)
+    public static class TokenizerState {
+        private TokenOffsets offsets = new TokenOffsets();
+    }
+
+    @State(Scope.Thread)
+    public static class ResolverState {
+        private SpanConflictResolver resolver = new SpanConflictResolver();
+    }
+
+    @State(Scope.Thread)
+    public static class FinderState {
+
+        private Map<String, NameFinderME> finders = Maps.newHashMap();
+
+        @Setup
+        public void setup(EntityExtractionBenchmark benchmark) {
+            for (Map.Entry<String, TokenNameFinderModel> entry : benchmark.models.entrySet()) {
+                finders.put(entry.getKey(), new NameFinderME(entry.getValue()));
+            }
+        }
+
+        double[] find(String type, String[] tokens) {
+            NameFinderME finder = finders.get(type);
+            try {
+                return finder.probs(finder.find(tokens));
+            } finally {
+                finder.clearAdaptiveData();
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.util.CollectionObjectStream;
+import opennlp.tools.util.Span;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic documents and small locally trained models, so the benchmarks do not
+ * need any of the downloaded models
+ */
+public class SyntheticCorpus {
+
+    public static final String[] TYPES = { "name", "date", "location" };
+
+    private static final String[] NAMES = { "Jack Nicholson", "Kobe Bryant", "Michael Jordan", "Nancy Reagan",
+            "Joanne Drake", "Anna Schmidt", "Peter Miller", "Maria Lopez", "John Smith", "Laura Chen" };
+    private static final String[] DATES = { "tomorrow", "yesterday", "Sunday", "Monday", "Friday", "today", "next week" };
+    private static final String[] LOCATIONS = { "Munich", "Amsterdam", "Berlin", "Los Angeles", "Santa Monica",
+            "California", "Paris", "London", "New York" };
+    private static final String[] FILLER = { "the", "meetup", "was", "a", "great", "search", "talk", "about",
+            "basketball", "players", "of", "all", "time", "and", "some", "people", "said", "that", "it", "is", "one",
+            "best" };
+
+    private static File modelDirectory;
+
+    /**
+     * Returns settings pointing to one trained model per type, the models are trained once per JVM
+     */
+    public static synchronized Settings settings() throws IOException {
+        if (modelDirectory == null) {
+            File directory = new File(System.getProperty("java.io.tmpdir"), "opennlp-benchmark-models-" + System.nanoTime());
+            if (!directory.mkdirs()) {
+                throw new IOException("Could not create directory " + directory);
+            }
+            directory.deleteOnExit();
+            for (String type : TYPES) {
+                File file = new File(directory, type + ".bin");
+                writeModel(train(type), file);
+                file.deleteOnExit();
+            }
+            modelDirectory = directory;
+        }
+
+        ImmutableSettings.Builder builder = ImmutableSettings.settingsBuilder();
+        for (String type : TYPES) {
+            builder.put("opennlp.models." + type + ".file", new File(modelDirectory, type + ".bin").getAbsolutePath());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates a document of tokenCount tokens, every entityEvery tokens is an entity of a random type
+     */
+    public static String document(long seed, int tokenCount, int entityEvery) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= tokenCount; i++) {
+            if (entityEvery > 0 && i % entityEvery == 0) {
+                sb.append(pick(random, pick(random, new String[][] { NAMES, DATES, LOCATIONS })));
+            } else {
+                sb.append(pick(random, FILLER));
+            }
+            sb.append(i % 12 == 0 ? ". " : " ");
+        }
+        return sb.append(".").toString();
+    }
+
+    public static TokenNameFinderModel train(String type) throws IOException {
+        List<NameSample> samples = Lists.newArrayList();
+        Random random = new Random(type.hashCode());
+        for (int i = 0; i < 300; i++) {
+            samples.add(sample(type, random));
+        }
+
+        // the trainer is very chatty on stdout, which would end up in the benchmark output
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {}
+        }));
+        try {
+            return NameFinderME.train("en", type, new CollectionObjectStream<NameSample>(samples),
+                    Collections.<String, Object>emptyMap(), 50, 1);
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    private static NameSample sample(String type, Random random) {
+        List<String> tokens = Lists.newArrayList();
+        List<Span> spans = Lists.newArrayList();
+        String[] entities = "name".equals(type) ? NAMES : "date".equals(type) ? DATES : LOCATIONS;
+        int length = 6 + random.nextInt(10);
+        for (int i = 0; i < length; i++) {
+            int choice = random.nextInt(6);
+            if (choice == 0) {
+                String[] entityTokens = pick(random, entities).split(" ");
+                spans.add(new Span(tokens.size(), tokens.size() + entityTokens.length, type));
+                Collections.addAll(tokens, entityTokens);
+            } else if (choice == 1) {
+                String[][] others = { NAMES, DATES, LOCATIONS };
+                String[] other = others[random.nextInt(others.length)];
+                if (other != entities) {
+                    Collections.addAll(tokens, pick(random, other).split(" "));
+                }
+            } else {
+                tokens.add(pick(random, FILLER));
+            }
+        }
+        tokens.add(".");
+        return new NameSample(tokens.toArray(new String[tokens.size()]), spans.toArray(new Span[spans.size()]), true);
+    }
+
+    private static <T> T pick(Random random, T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static void writeModel(TokenNameFinderModel model, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            model.serialize(out);
+        } finally {
+            out.close();
+        }
+    }
+}
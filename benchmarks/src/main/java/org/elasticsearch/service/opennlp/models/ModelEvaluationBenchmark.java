@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp.models;
+
+import opennlp.model.AbstractModel;
+import opennlp.model.MaxentModel;
+import opennlp.tools.namefind.NameContextGenerator;
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.tokenize.SimpleTokenizer;
+import org.elasticsearch.service.opennlp.SyntheticCorpus;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per token evaluation cost of the opennlp model structures with the compact models on
+ * the heap and memory mapped. The retained heap of each model is printed during the setup
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelEvaluationBenchmark {
+
+    private static final int TOKEN_COUNT = 1000;
+    private static final int HEAP_COPIES = 20;
+
+    @Param({ "opennlp", "heap", "mapped" })
+    public String storage;
+
+    private byte[] modelBytes;
+    private File compactFile;
+    private MaxentModel model;
+    private String[][] contexts;
+    private double[] outsums;
+
+    @Setup
+    public void setup() throws Exception {
+        TokenNameFinderModel trainedModel = SyntheticCorpus.train("name");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        trainedModel.serialize(out);
+        modelBytes = out.toByteArray();
+        compactFile = File.createTempFile("opennlp-benchmark", ".model");
+        CompactModelWriter.write(trainedModel.getNameFinderModel(), compactFile);
+        model = load();
+
+        // the contexts the name finder evaluates for a document, without any previous outcomes
+        String[] tokens = SimpleTokenizer.INSTANCE.tokenize(SyntheticCorpus.document(TOKEN_COUNT, TOKEN_COUNT, 5));
+        String[] preds = new String[tokens.length];
+        Arrays.fill(preds, NameFinderME.OTHER);
+        NameContextGenerator contextGenerator = new ContextNameFinder(trainedModel).contextGenerator();
+        contexts = new String[tokens.length][];
+        for (int i = 0; i < tokens.length; i++) {
+            contexts[i] = contextGenerator.getContext(i, tokens, preds, new String[0][0]);
+        }
+        outsums = new double[model.getNumOutcomes()];
+
+        MaxentModel[] copies = new MaxentModel[HEAP_COPIES];
+        long before = usedHeap();
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = load();
+        }
+        long after = usedHeap();
+        System.out.println();
+        System.out.println("storage [" + storage + "] retained heap per model: " + (after - before) / copies.length +
+                " bytes" + (copies[0] instanceof CompactMaxentModel ? ", index and parameters: " +
+                ((CompactMaxentModel) copies[0]).sizeInBytes() + " bytes" : ""));
+    }
+
+    @TearDown
+    public void tearDown() {
+        compactFile.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TOKEN_COUNT)
+    public double evalPerToken() {
+        double sum = 0;
+        for (String[] context : contexts) {
+            sum += model.eval(context, outsums)[0];
+        }
+        return sum;
+    }
+
+    private MaxentModel load() throws IOException {
+        if ("mapped".equals(storage)) {
+            return MappedMaxentModel.map(compactFile);
+        }
+        AbstractModel opennlpModel = new TokenNameFinderModel(new ByteArrayInputStream(modelBytes)).getNameFinderModel();
+        if ("heap".equals(storage)) {
+            return HeapMaxentModel.build(opennlpModel);
+        }
+        return opennlpModel;
+    }
+
+    /* exposes the context generator with the default feature generators the name finder creates */
+    private static class ContextNameFinder extends NameFinderME {
+        ContextNameFinder(TokenNameFinderModel model) {
+            super(model);
+        }
+
+        NameContextGenerator contextGenerator() {
+            return contextGenerator;
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.index.analysis.opennlp;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.elasticsearch.common.collect.Lists;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Consumes a token stream right away and replays its tokens later. A stream of an analyzer reuses its components,
+ * so it has to be consumed and closed before the analyzer is used again, while a field with a token stream is only
+ * consumed when the whole document is indexed
+ */
+public final class BufferedTokenStream extends TokenStream {
+
+    private final List<State> states = Lists.newArrayList();
+    private final State finalState;
+    private int token;
+
+    public BufferedTokenStream(TokenStream input) throws IOException {
+        super(input.cloneAttributes());
+        try {
+            input.reset();
+            while (input.incrementToken()) {
+                states.add(input.captureState());
+            }
+            input.end();
+            finalState = input.captureState();
+        } finally {
+            input.close();
+        }
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (token == states.size()) {
+            return false;
+        }
+        restoreState(states.get(token++));
+        return true;
+    }
+
+    @Override
+    public void end() throws IOException {
+        restoreState(finalState);
+    }
+
+    @Override
+    public void reset() throws IOException {
+        token = 0;
+    }
+}
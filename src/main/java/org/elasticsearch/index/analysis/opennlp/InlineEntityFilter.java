@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.index.analysis.opennlp;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.elasticsearch.service.opennlp.EntitySpans;
+
+import java.io.IOException;
+
+/**
+ * Adds the entities extracted from a content to the analyzed tokens of that content, so they are indexed in the
+ * same field. An entity token <code>type:text</code>, like <code>name:Kobe Bryant</code>, follows the first token
+ * overlapping the entity at the same position. If several entities start within the same token, all of them follow
+ * it at that position. The entity text is the one of the content and is not analyzed.
+ * Entities overlapping no token, because all their tokens were removed by the analyzer, are dropped
+ */
+public final class InlineEntityFilter extends TokenFilter {
+
+    public static final char TYPE_SEPARATOR = ':';
+
+    private final String content;
+    private final EntitySpans entities;
+
+    private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute offsetAttribute = addAttribute(OffsetAttribute.class);
+    private final PositionIncrementAttribute positionIncrementAttribute = addAttribute(PositionIncrementAttribute.class);
+    private final TypeAttribute typeAttribute = addAttribute(TypeAttribute.class);
+
+    private State tokenState;
+    private int tokenEndOffset;
+    private int entity;
+
+    /**
+     * The entities need to be the ones of this content, sorted by their start
+     */
+    public InlineEntityFilter(TokenStream input, String content, EntitySpans entities) {
+        super(input);
+        this.content = content;
+        this.entities = entities;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (tokenState != null) {
+            restoreState(tokenState);
+            int start = entities.start(entity);
+            int end = entities.end(entity);
+            termAttribute.setEmpty().append(entities.type(entity)).append(TYPE_SEPARATOR).append(content, start, end);
+            offsetAttribute.setOffset(Math.max(start, offsetAttribute.startOffset()), Math.max(end, offsetAttribute.endOffset()));
+            positionIncrementAttribute.setPositionIncrement(0);
+            typeAttribute.setType(entities.type(entity));
+            entity++;
+            if (entity == entities.size() || entities.start(entity) >= tokenEndOffset) {
+                tokenState = null;
+            }
+            return true;
+        }
+
+        if (!input.incrementToken()) {
+            return false;
+        }
+        while (entity < entities.size() && entities.end(entity) <= offsetAttribute.startOffset()) {
+            entity++;
+        }
+        if (entity < entities.size() && entities.start(entity) < offsetAttribute.endOffset()) {
+            tokenState = captureState();
+            tokenEndOffset = offsetAttribute.endOffset();
+        }
+        return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        tokenState = null;
+        entity = 0;
+    }
+}
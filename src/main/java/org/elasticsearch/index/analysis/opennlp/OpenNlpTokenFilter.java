@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.index.analysis.opennlp;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.util.AttributeSource;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.service.opennlp.EntitySpans;
+import org.elasticsearch.service.opennlp.OpenNlpService;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Finds the entities in the tokens of the analysis chain, so the text is not tokenized again for the models.
+ * All tokens of the stream are read first, as the models need the whole context, and are then passed on
+ * unchanged. After the first token of an entity, an entity token is added at the same position, its term
+ * is the text of the entity tokens joined by a whitespace, its type the entity type and its position length
+ * the number of tokens. The models are case sensitive, so this filter should come before a lowercase filter.
+ * The filter runs for query strings as well, so by default the tokens are passed on unchanged while the models are
+ * still loading, instead of waiting for them. With waitForModels it waits like the opennlp mapping type does
+ */
+public final class OpenNlpTokenFilter extends TokenFilter {
+
+    private final OpenNlpService openNlpService;
+    private final Collection<String> types;
+    private final boolean waitForModels;
+
+    private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute offsetAttribute = addAttribute(OffsetAttribute.class);
+    private final PositionIncrementAttribute positionIncrementAttribute = addAttribute(PositionIncrementAttribute.class);
+    private final PositionLengthAttribute positionLengthAttribute = addAttribute(PositionLengthAttribute.class);
+    private final TypeAttribute typeAttribute = addAttribute(TypeAttribute.class);
+
+    private final List<AttributeSource.State> states = Lists.newArrayList();
+    private final List<String> terms = Lists.newArrayList();
+    private final List<Integer> endOffsets = Lists.newArrayList();
+    private EntitySpans entities;
+    private int token;
+    private int entity;
+
+    /**
+     * Finds the entities of the given types, all loaded types if types is null
+     */
+    public OpenNlpTokenFilter(TokenStream input, OpenNlpService openNlpService, Collection<String> types) {
+        this(input, openNlpService, types, false);
+    }
+
+    public OpenNlpTokenFilter(TokenStream input, OpenNlpService openNlpService, Collection<String> types, boolean waitForModels) {
+        super(input);
+        this.openNlpService = openNlpService;
+        this.types = types;
+        this.waitForModels = waitForModels;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (entities == null) {
+            while (input.incrementToken()) {
+                states.add(captureState());
+                terms.add(termAttribute.toString());
+                endOffsets.add(offsetAttribute.endOffset());
+            }
+            if (waitForModels || openNlpService.ready(types)) {
+                entities = openNlpService.tokenEntities(terms.toArray(new String[terms.size()]), types);
+            } else {
+                entities = new EntitySpans(Strings.EMPTY_ARRAY);
+            }
+        }
+
+        // the entities are sorted by their first token and do not overlap
+        if (entity < entities.size() && entities.start(entity) == token - 1) {
+            int start = entities.start(entity);
+            int end = entities.end(entity);
+            restoreState(states.get(start));
+            termAttribute.setEmpty().append(terms.get(start));
+            for (int i = start + 1; i < end; i++) {
+                termAttribute.append(' ').append(terms.get(i));
+            }
+            offsetAttribute.setOffset(offsetAttribute.startOffset(), endOffsets.get(end - 1));
+            positionIncrementAttribute.setPositionIncrement(0);
+            positionLengthAttribute.setPositionLength(end - start);
+            typeAttribute.setType(entities.type(entity));
+            entity++;
+            return true;
+        }
+
+        if (token < states.size()) {
+            restoreState(states.get(token++));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        states.clear();
+        terms.clear();
+        endOffsets.clear();
+        entities = null;
+        token = 0;
+        entity = 0;
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.index.analysis.opennlp;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.elasticsearch.common.collect.ImmutableSet;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.assistedinject.Assisted;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
+import org.elasticsearch.index.settings.IndexSettings;
+import org.elasticsearch.service.opennlp.OpenNlpService;
+
+/**
+ * The opennlp token filter, the entities setting restricts it to some entity types. With wait_for_models the
+ * filter waits for models which are still loading, which should only be set for analyzers used for indexing
+ */
+public class OpenNlpTokenFilterFactory extends AbstractTokenFilterFactory {
+
+    private final OpenNlpService openNlpService;
+    private final ImmutableSet<String> types;
+    private final boolean waitForModels;
+
+    @Inject
+    public OpenNlpTokenFilterFactory(Index index, @IndexSettings Settings indexSettings, OpenNlpService openNlpService,
+                                     @Assisted String name, @Assisted Settings settings) {
+        super(index, indexSettings, name, settings);
+        this.openNlpService = openNlpService;
+        String[] entities = settings.getAsArray("entities", null);
+        this.types = entities == null ? null : ImmutableSet.copyOf(entities);
+        this.waitForModels = settings.getAsBoolean("wait_for_models", false);
+        openNlpService.load(types == null ? openNlpService.modelTypes() : types);
+    }
+
+    @Override
+    public TokenStream create(TokenStream tokenStream) {
+        return new OpenNlpTokenFilter(tokenStream, openNlpService, types, waitForModels);
+    }
+}
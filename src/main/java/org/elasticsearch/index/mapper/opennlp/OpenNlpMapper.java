@@ -17,30 +17,70 @@
  */
 package org.elasticsearch.index.mapper.opennlp;
 
-import org.elasticsearch.common.base.Joiner;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.IndexableField;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.common.collect.ImmutableMap;
+import org.elasticsearch.common.collect.ImmutableSet;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.collect.Maps;
+import org.elasticsearch.common.collect.Sets;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.index.analysis.AnalysisService;
+import org.elasticsearch.index.analysis.NamedAnalyzer;
+import org.elasticsearch.index.analysis.opennlp.BufferedTokenStream;
+import org.elasticsearch.index.analysis.opennlp.InlineEntityFilter;
 import org.elasticsearch.index.mapper.*;
 import org.elasticsearch.index.mapper.core.StringFieldMapper;
+import org.elasticsearch.index.mapper.object.ArrayValueMapperParser;
+import org.elasticsearch.service.opennlp.EntityLimits;
+import org.elasticsearch.service.opennlp.EntitySpans;
 import org.elasticsearch.service.opennlp.OpenNlpService;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static org.elasticsearch.common.xcontent.support.XContentMapValues.nodeBooleanValue;
+import static org.elasticsearch.common.xcontent.support.XContentMapValues.nodeDoubleValue;
+import static org.elasticsearch.common.xcontent.support.XContentMapValues.nodeIntegerValue;
+import static org.elasticsearch.common.xcontent.support.XContentMapValues.nodeTimeValue;
 import static org.elasticsearch.index.mapper.MapperBuilders.stringField;
 
-public class OpenNlpMapper implements Mapper {
+/**
+ * Indexes the content of a field and the extracted entities in one sub-field per entity type.
+ * The sub-fields are created for every model type configured on the node, or as listed in the mapping.
+ * The entities parameter restricts a field to the given types, so the other models are not run for it.
+ * All values of a field, also of arrays and objects, are extracted together and their entities are indexed once per field.
+ * Entities below min_probability are dropped and at most max_entities of the most probable ones are indexed per type.
+ * If max_chars, max_tokens or max_time are set, the extraction of a field stops once one of them is exceeded and the
+ * document gets the value true in the limited sub-field, on_limit: skip drops the entities found until then.
+ * With inline_entities no entity sub-fields are created, the entities are indexed as type:text tokens in the content
+ * field itself, at the position of their first token. The entity limits then apply per value
+ */
+public class OpenNlpMapper implements Mapper, ArrayValueMapperParser {
 
     public static final String CONTENT_TYPE = "opennlp";
 
+    /* the sub-field marking documents whose extraction exceeded a limit */
+    public static final String LIMITED = "limited";
+
     public static class Builder extends Mapper.Builder<Builder, OpenNlpMapper> {
 
         private StringFieldMapper.Builder contentBuilder;
-        private StringFieldMapper.Builder nameBuilder = stringField("name");
-        private StringFieldMapper.Builder dateBuilder = stringField("date");
-        private StringFieldMapper.Builder locationBuilder = stringField("location");
+        private Map<String, StringFieldMapper.Builder> entityBuilders = Maps.newTreeMap();
+        private ImmutableSet<String> entities;
+        private EntityLimits limits = EntityLimits.NONE;
+        private boolean inlineEntities = false;
         private OpenNlpService openNlpService;
 
 
@@ -48,6 +88,9 @@ public class OpenNlpMapper implements Mapper {
             super(name);
             this.openNlpService = openNlpService;
             this.contentBuilder = stringField(name);
+            for (String type : openNlpService.modelTypes()) {
+                entityBuilders.put(type, stringField(type));
+            }
             this.builder = this;
         }
 
@@ -56,31 +99,67 @@ public class OpenNlpMapper implements Mapper {
             return this;
         }
 
-        public Builder names(StringFieldMapper.Builder namesBuilder) {
-            this.nameBuilder = namesBuilder;
+        public Builder entity(String type, StringFieldMapper.Builder entityBuilder) {
+            this.entityBuilders.put(type, entityBuilder);
+            return this;
+        }
+
+        /**
+         * Restricts the field to these entity types, sub-fields of other types are not created
+         */
+        public Builder entities(Collection<String> entities) {
+            this.entities = ImmutableSet.copyOf(entities);
             return this;
         }
 
-        public Builder dates(StringFieldMapper.Builder datesBuilder) {
-            this.dateBuilder = datesBuilder;
+        public Builder limits(EntityLimits limits) {
+            this.limits = limits;
             return this;
         }
 
-        public Builder locations(StringFieldMapper.Builder locationsBuilder) {
-            this.locationBuilder = locationsBuilder;
+        /**
+         * Indexes the entities in the content field instead of in one sub-field per type
+         */
+        public Builder inlineEntities(boolean inlineEntities) {
+            this.inlineEntities = inlineEntities;
             return this;
         }
 
+        StringFieldMapper.Builder entity(String type) {
+            StringFieldMapper.Builder entityBuilder = entityBuilders.get(type);
+            if (entityBuilder == null) {
+                entityBuilder = stringField(type);
+                entityBuilders.put(type, entityBuilder);
+            }
+            return entityBuilder;
+        }
+
         @Override
         public OpenNlpMapper build(BuilderContext context) {
             context.path().add(name);
             StringFieldMapper contentMapper = contentBuilder.build(context);
-            StringFieldMapper nameMapper = nameBuilder.build(context);
-            StringFieldMapper dateMapper = dateBuilder.build(context);
-            StringFieldMapper locationMapper = locationBuilder.build(context);
+            if (entities != null) {
+                entityBuilders.keySet().retainAll(entities);
+                for (String type : entities) {
+                    entity(type);
+                }
+            }
+            // with lazy loading the models are loaded once a mapping uses them
+            openNlpService.load(entityBuilders.keySet());
+            ImmutableMap.Builder<String, StringFieldMapper> entityMappers = ImmutableMap.builder();
+            if (!inlineEntities) {
+                for (Map.Entry<String, StringFieldMapper.Builder> entry : entityBuilders.entrySet()) {
+                    entityMappers.put(entry.getKey(), entry.getValue().build(context));
+                }
+            }
+            StringFieldMapper limitedMapper = null;
+            if (limits.limitsExtraction()) {
+                limitedMapper = stringField(LIMITED).tokenized(false).includeInAll(false).build(context);
+            }
             context.path().remove();
 
-            return new OpenNlpMapper(name, openNlpService, contentMapper, nameMapper, dateMapper, locationMapper);
+            return new OpenNlpMapper(name, openNlpService, contentMapper, entityMappers.build(), limitedMapper,
+                    ImmutableSet.copyOf(entityBuilders.keySet()), entities, limits, inlineEntities);
         }
     }
 
@@ -97,6 +176,24 @@ public class OpenNlpMapper implements Mapper {
         @Override
         public Mapper.Builder parse(String name, Map<String, Object> node, ParserContext parserContext) throws MapperParsingException {
             OpenNlpMapper.Builder builder = new Builder(name, openNlpService);
+            EntityLimits.Builder limits = new EntityLimits.Builder();
+            // analyzers and limits can only be set for these types, so a typo is not silently ignored
+            Set<String> knownTypes = Sets.newHashSet(openNlpService.modelTypes());
+            // the sub-fields are part of a stored mapping, which is parsed again even if their model is no longer configured
+            if (node.get("fields") instanceof Map) {
+                for (Object propName : ((Map) node.get("fields")).keySet()) {
+                    knownTypes.add(propName.toString());
+                }
+            }
+            // limits only apply to the extracted types, these are stored as the entities or as sub-fields
+            Set<String> limitTypes = knownTypes;
+            if (node.get("entities") instanceof List) {
+                limitTypes = Sets.newHashSet();
+                for (Object entity : (List) node.get("entities")) {
+                    knownTypes.add(entity.toString());
+                    limitTypes.add(entity.toString());
+                }
+            }
 
             for (Map.Entry<String, Object> entry : node.entrySet()) {
                 String fieldName = entry.getKey();
@@ -108,53 +205,128 @@ public class OpenNlpMapper implements Mapper {
                         String propName = fieldsEntry.getKey();
                         Object propNode = fieldsEntry.getValue();
 
+                        StringFieldMapper.Builder fieldBuilder = (StringFieldMapper.Builder) parserContext.typeParser("string").parse(propName, (Map<String, Object>) propNode, parserContext);
                         if (name.equals(propName)) {
-                            builder.content((StringFieldMapper.Builder) parserContext.typeParser("string").parse(name, (Map<String, Object>) propNode, parserContext));
-                        } else if ("name".equals(propName)) {
-                            builder.names((StringFieldMapper.Builder) parserContext.typeParser("string").parse("name", (Map<String, Object>) propNode, parserContext));
-                        } else if ("date".equals(propName)) {
-                            builder.dates((StringFieldMapper.Builder) parserContext.typeParser("string").parse("date", (Map<String, Object>) propNode, parserContext));
-                        } else if ("location".equals(propName)) {
-                            builder.locations((StringFieldMapper.Builder) parserContext.typeParser("string").parse("location", (Map<String, Object>) propNode, parserContext));
+                            builder.content(fieldBuilder);
+                        } else {
+                            builder.entity(propName, fieldBuilder);
                         }
                     }
                 }
 
-                if (fieldName.equals("person_analyzer")) {
-                    builder.nameBuilder.searchAnalyzer(analysisService.analyzer(fieldNode.toString()));
-                    builder.nameBuilder.indexAnalyzer(analysisService.analyzer(fieldNode.toString()));
+                if (fieldName.equals("inline_entities")) {
+                    builder.inlineEntities(nodeBooleanValue(fieldNode));
+                }
+
+                if (fieldName.equals("entities")) {
+                    if (!(fieldNode instanceof List) || ((List) fieldNode).isEmpty()) {
+                        throw new MapperParsingException("[entities] of field [" + name + "] must be a non empty list of entity types");
+                    }
+                    List<String> entities = Lists.newArrayList();
+                    for (Object entity : (List) fieldNode) {
+                        entities.add(entity.toString());
+                    }
+                    builder.entities(entities);
                 }
 
-                if (fieldName.equals("date_analyzer")) {
-                    builder.dateBuilder.searchAnalyzer(analysisService.analyzer(fieldNode.toString()));
-                    builder.dateBuilder.indexAnalyzer(analysisService.analyzer(fieldNode.toString()));
+                // <type>_analyzer, person_analyzer is still supported for the name type
+                if (fieldName.endsWith("_analyzer")) {
+                    String type = fieldName.substring(0, fieldName.length() - "_analyzer".length());
+                    if ("person".equals(type)) {
+                        type = "name";
+                    }
+                    checkType(name, fieldName, type, knownTypes);
+                    NamedAnalyzer analyzer = analysisService.analyzer(fieldNode.toString());
+                    builder.entity(type).searchAnalyzer(analyzer);
+                    builder.entity(type).indexAnalyzer(analyzer);
                 }
 
-                if (fieldName.equals("location_analyzer")) {
-                    builder.locationBuilder.searchAnalyzer(analysisService.analyzer(fieldNode.toString()));
-                    builder.locationBuilder.indexAnalyzer(analysisService.analyzer(fieldNode.toString()));
+                // min_probability and max_entities for all types, <type>_min_probability and <type>_max_entities per type
+                try {
+                    if (fieldName.equals("min_probability") || fieldName.endsWith("_min_probability")) {
+                        limits.minProbability(limitType(name, fieldName, "min_probability", limitTypes), nodeDoubleValue(fieldNode));
+                    } else if (fieldName.equals("max_entities") || fieldName.endsWith("_max_entities")) {
+                        limits.maxEntities(limitType(name, fieldName, "max_entities", limitTypes), nodeIntegerValue(fieldNode));
+                    } else if (fieldName.equals("max_chars")) {
+                        limits.maxChars(nodeIntegerValue(fieldNode));
+                    } else if (fieldName.equals("max_tokens")) {
+                        limits.maxTokens(nodeIntegerValue(fieldNode));
+                    } else if (fieldName.equals("max_time")) {
+                        limits.maxTime(nodeTimeValue(fieldNode));
+                    } else if (fieldName.equals("on_limit")) {
+                        limits.onLimit(fieldNode.toString());
+                    }
+                } catch (ElasticSearchIllegalArgumentException e) {
+                    throw new MapperParsingException("[" + fieldName + "] of field [" + name + "] is invalid: " + e.getMessage());
                 }
             }
 
-            return builder;
+            // the entity tokens are added to the analyzed tokens, a content which is not analyzed would lose them
+            if (Boolean.TRUE.equals(inlineEntities(node)) && !analyzed(name, node)) {
+                throw new MapperParsingException("[inline_entities] of field [" + name + "] needs an analyzed content, " +
+                        "it cannot be combined with [index] not_analyzed or no");
+            }
+
+            return builder.limits(limits.build());
+        }
+
+        private static Boolean inlineEntities(Map<String, Object> node) {
+            Object inlineEntities = node.get("inline_entities");
+            return inlineEntities == null ? null : nodeBooleanValue(inlineEntities);
+        }
+
+        /* the content is configured as the sub-field with the name of the field */
+        private static boolean analyzed(String name, Map<String, Object> node) {
+            if (!(node.get("fields") instanceof Map) || !(((Map) node.get("fields")).get(name) instanceof Map)) {
+                return true;
+            }
+            Object index = ((Map) ((Map) node.get("fields")).get(name)).get("index");
+            return index == null || "analyzed".equals(index.toString());
+        }
+    }
+
+    private static void checkType(String name, String key, String type, Set<String> knownTypes) {
+        if (!knownTypes.contains(type)) {
+            throw new MapperParsingException("[" + key + "] of field [" + name + "] refers to the unknown entity type [" + type +
+                    "], configure opennlp.models." + type + ".file or list the type in [entities]");
         }
     }
 
+    private static String limitType(String name, String fieldName, String limit, Set<String> knownTypes) {
+        if (fieldName.length() == limit.length()) {
+            return null;
+        }
+        String type = fieldName.substring(0, fieldName.length() - limit.length() - 1);
+        if ("person".equals(type)) {
+            type = "name";
+        }
+        checkType(name, fieldName, type, knownTypes);
+        return type;
+    }
+
     private final String name;
     private OpenNlpService openNlpService;
     private final StringFieldMapper contentMapper;
-    private final StringFieldMapper nameMapper;
-    private final StringFieldMapper dateMapper;
-    private final StringFieldMapper locationMapper;
-
-    public OpenNlpMapper(String name, OpenNlpService openNlpService, StringFieldMapper contentMapper, StringFieldMapper nameMapper,
-                         StringFieldMapper dateMapper, StringFieldMapper locationMapper) {
+    private final ImmutableMap<String, StringFieldMapper> entityMappers;
+    private final StringFieldMapper limitedMapper;
+    private final ImmutableSet<String> entityTypes;
+    private final ImmutableSet<String> entities;
+    private final EntityLimits limits;
+    private final boolean inlineEntities;
+
+    public OpenNlpMapper(String name, OpenNlpService openNlpService, StringFieldMapper contentMapper,
+                         ImmutableMap<String, StringFieldMapper> entityMappers, StringFieldMapper limitedMapper,
+                         ImmutableSet<String> entityTypes, ImmutableSet<String> entities, EntityLimits limits,
+                         boolean inlineEntities) {
         this.name = name;
+        this.limits = limits;
+        this.entities = entities;
         this.openNlpService = openNlpService;
         this.contentMapper = contentMapper;
-        this.nameMapper = nameMapper;
-        this.dateMapper = dateMapper;
-        this.locationMapper = locationMapper;
+        this.entityMappers = entityMappers;
+        this.limitedMapper = limitedMapper;
+        this.entityTypes = entityTypes;
+        this.inlineEntities = inlineEntities;
     }
 
     @Override
@@ -164,41 +336,167 @@ public class OpenNlpMapper implements Mapper {
 
     @Override
     public void parse(ParseContext context) throws IOException {
-        String content = null;
-
         XContentParser parser = context.parser();
         XContentParser.Token token = parser.currentToken();
 
-        if (token == XContentParser.Token.VALUE_STRING) {
-            content = parser.text();
+        List<String> contents = Lists.newArrayList();
+        if (token == XContentParser.Token.START_ARRAY || token == XContentParser.Token.START_OBJECT) {
+            collectValues(parser, contents);
+        } else if (isText(token)) {
+            contents.add(parser.text());
+        } else {
+            // a null value, which is handled by the content mapper, but has no entities
+            context.externalValue(null);
+            contentMapper.parse(context);
+            return;
         }
 
+        if (!inlineEntities) {
+            for (String content : contents) {
+                context.externalValue(content);
+                contentMapper.parse(context);
+            }
+        }
+        if (contents.isEmpty()) {
+            return;
+        }
+
+        // only the models of the types this field has sub-fields for are run, over all values at once
+        String source = null;
+        if (openNlpService.slowLog().enabled()) {
+            source = "[" + context.index() + "][" + context.type() + "][" + context.id() + "] field [" + contentMapper.names().fullName() + "]";
+        }
+        List<EntitySpans> valueEntities = openNlpService.entitiesBatch(contents, entityTypes, limits, source);
+
+        if (inlineEntities) {
+            for (int i = 0; i < contents.size(); i++) {
+                parseInline(context, contents.get(i), valueEntities.get(i));
+            }
+            parseLimited(context, valueEntities);
+            return;
+        }
+
+        // the texts are created from the values only here, an entity found in several values is indexed only once
+        Map<String, Set<String>> namedEntities = Maps.newHashMap();
+        if (contents.size() > 1 && limits.limitsEntities()) {
+            addMostProbable(contents, valueEntities, namedEntities);
+        } else {
+            for (int i = 0; i < contents.size(); i++) {
+                valueEntities.get(i).addTo(contents.get(i), namedEntities);
+            }
+        }
+        parseEntities(context, namedEntities);
+        parseLimited(context, valueEntities);
+    }
+
+    private void parseLimited(ParseContext context, List<EntitySpans> valueEntities) throws IOException {
+        if (limitedMapper != null) {
+            for (EntitySpans entities : valueEntities) {
+                if (entities.limited()) {
+                    context.externalValue("true");
+                    limitedMapper.parse(context);
+                    break;
+                }
+            }
+        }
+    }
+
+    /*
+     * The content mapper creates its fields as usual, then its indexed field is replaced by one with the analyzed
+     * tokens and the entities. The content is stored by a separate field, as a field with a token stream cannot be stored
+     */
+    private void parseInline(ParseContext context, String content, EntitySpans entities) throws IOException {
+        List<IndexableField> fields = context.doc().getFields();
+        int first = fields.size();
         context.externalValue(content);
         contentMapper.parse(context);
 
-        Map<String, Set<String>> namedEntities = openNlpService.tokenize(content);
+        String indexName = contentMapper.names().indexName();
+        boolean stored = false;
+        for (int i = first; i < fields.size(); i++) {
+            IndexableField field = fields.get(i);
+            if (field instanceof Field && field.name().equals(indexName) && field.fieldType().indexed() && field.fieldType().tokenized()) {
+                FieldType fieldType = new FieldType(((Field) field).fieldType());
+                fieldType.setStored(false);
+                Field inlineField = new Field(indexName, inlineTokenStream(context, indexName, content, entities), fieldType);
+                inlineField.setBoost(field.boost());
+                fields.set(i, inlineField);
+                stored |= field.fieldType().stored();
+            }
+        }
+        if (stored) {
+            context.doc().add(new StoredField(indexName, content));
+        }
+    }
 
-        Set<String> names = namedEntities.get("name");
-        if (names != null && names.size() > 0) {
-            for (String name : names) {
-                context.externalValue(name);
-                nameMapper.parse(context);
+    /*
+     * Analyzed with the analyzer the field would be indexed with, the document analyzer included
+     */
+    private TokenStream inlineTokenStream(ParseContext context, String indexName, String content, EntitySpans entities) throws IOException {
+        Analyzer analyzer = context.analyzer() == null ? context.docMapper().mappers().indexAnalyzer() :
+                context.docMapper().mappers().indexAnalyzer(context.analyzer());
+        return new BufferedTokenStream(new InlineEntityFilter(analyzer.tokenStream(indexName, content), content, entities));
+    }
+
+    /*
+     * The limits apply per value in the service, here the most probable entities of all values are kept
+     */
+    private void addMostProbable(List<String> contents, final List<EntitySpans> valueEntities, Map<String, Set<String>> namedEntities) {
+        List<int[]> candidates = Lists.newArrayList();
+        for (int i = 0; i < valueEntities.size(); i++) {
+            for (int j = 0; j < valueEntities.get(i).size(); j++) {
+                candidates.add(new int[] { i, j });
+            }
+        }
+        Collections.sort(candidates, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] o1, int[] o2) {
+                return Double.compare(valueEntities.get(o2[0]).prob(o2[1]), valueEntities.get(o1[0]).prob(o1[1]));
+            }
+        });
+
+        for (int[] candidate : candidates) {
+            EntitySpans entities = valueEntities.get(candidate[0]);
+            String type = entities.type(candidate[1]);
+            Set<String> typeEntities = namedEntities.get(type);
+            if (typeEntities == null) {
+                typeEntities = Sets.newLinkedHashSet();
+                namedEntities.put(type, typeEntities);
+            }
+            if (typeEntities.size() < limits.maxEntities(type)) {
+                typeEntities.add(entities.text(contents.get(candidate[0]), candidate[1]));
             }
         }
+    }
 
-        Set<String> dates = namedEntities.get("date");
-        if (dates != null && dates.size() > 0) {
-            for (String date : dates) {
-                context.externalValue(date);
-                dateMapper.parse(context);
+    /*
+     * Collects the values of an array or object, including the ones of nested arrays and objects like
+     * {"title": "...", "paragraphs": ["...", "..."]}, until the end of it. Field names and nulls are skipped
+     */
+    private void collectValues(XContentParser parser, List<String> contents) throws IOException {
+        XContentParser.Token token;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY && token != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.START_ARRAY || token == XContentParser.Token.START_OBJECT) {
+                collectValues(parser, contents);
+            } else if (isText(token)) {
+                contents.add(parser.text());
             }
         }
+    }
+
+    private static boolean isText(XContentParser.Token token) {
+        return token == XContentParser.Token.VALUE_STRING || token == XContentParser.Token.VALUE_NUMBER ||
+                token == XContentParser.Token.VALUE_BOOLEAN;
+    }
 
-        Set<String> locations = namedEntities.get("location");
-        if (locations != null && locations.size() > 0) {
-            for (String location : locations) {
-                context.externalValue(location);
-                locationMapper.parse(context);
+    private void parseEntities(ParseContext context, Map<String, Set<String>> namedEntities) throws IOException {
+        for (Map.Entry<String, StringFieldMapper> entry : entityMappers.entrySet()) {
+            Set<String> entities = namedEntities.get(entry.getKey());
+            if (entities != null && entities.size() > 0) {
+                for (String entity : entities) {
+                    context.externalValue(entity);
+                    entry.getValue().parse(context);
+                }
             }
         }
     }
@@ -210,9 +508,12 @@ public class OpenNlpMapper implements Mapper {
     @Override
     public void traverse(FieldMapperListener fieldMapperListener) {
         contentMapper.traverse(fieldMapperListener);
-        nameMapper.traverse(fieldMapperListener);
-        dateMapper.traverse(fieldMapperListener);
-        locationMapper.traverse(fieldMapperListener);
+        for (StringFieldMapper entityMapper : entityMappers.values()) {
+            entityMapper.traverse(fieldMapperListener);
+        }
+        if (limitedMapper != null) {
+            limitedMapper.traverse(fieldMapperListener);
+        }
     }
 
     @Override
@@ -222,21 +523,61 @@ public class OpenNlpMapper implements Mapper {
     @Override
     public void close() {
         contentMapper.close();
-        nameMapper.close();
-        dateMapper.close();
-        locationMapper.close();
+        for (StringFieldMapper entityMapper : entityMappers.values()) {
+            entityMapper.close();
+        }
+        if (limitedMapper != null) {
+            limitedMapper.close();
+        }
     }
 
     @Override
     public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
         builder.startObject(name);
         builder.field("type", CONTENT_TYPE);
+        if (entities != null) {
+            builder.field("entities", entities);
+        }
+        if (limits.minProbability() != null) {
+            builder.field("min_probability", limits.minProbability());
+        }
+        if (limits.maxEntities() != null) {
+            builder.field("max_entities", limits.maxEntities());
+        }
+        for (Map.Entry<String, Double> entry : limits.typeMinProbabilities().entrySet()) {
+            builder.field(entry.getKey() + "_min_probability", entry.getValue());
+        }
+        for (Map.Entry<String, Integer> entry : limits.typeMaxEntities().entrySet()) {
+            builder.field(entry.getKey() + "_max_entities", entry.getValue());
+        }
+        // the limited sub-field is not serialized, it is created again from these
+        if (limits.maxChars() != null) {
+            builder.field("max_chars", limits.maxChars());
+        }
+        if (limits.maxTokens() != null) {
+            builder.field("max_tokens", limits.maxTokens());
+        }
+        if (limits.maxTime() != null) {
+            builder.field("max_time", limits.maxTime().millis() + "ms");
+        }
+        if (limits.skip()) {
+            builder.field("on_limit", "skip");
+        }
+        if (inlineEntities) {
+            builder.field("inline_entities", true);
+        }
 
         builder.startObject("fields");
         contentMapper.toXContent(builder, params);
-        nameMapper.toXContent(builder, params);
-        dateMapper.toXContent(builder, params);
-        locationMapper.toXContent(builder, params);
+        for (StringFieldMapper entityMapper : entityMappers.values()) {
+            entityMapper.toXContent(builder, params);
+        }
+        // inline entities have no sub-fields, the types are kept so that their limits are known when the mapping is parsed again
+        if (inlineEntities) {
+            for (String type : entityTypes) {
+                builder.startObject(type).field("type", "string").endObject();
+            }
+        }
         builder.endObject();
 
         builder.endObject();
@@ -0,0 +1,35 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.plugin.opennlp;
+
+import org.elasticsearch.common.inject.Binder;
+import org.elasticsearch.common.inject.Module;
+import org.elasticsearch.service.opennlp.OpenNlpModelWatcher;
+import org.elasticsearch.service.opennlp.OpenNlpService;
+
+/**
+ * Binds the node level services, so that all indices of a node share the same loaded models
+ */
+public class OpenNlpModule implements Module {
+
+    @Override
+    public void configure(Binder binder) {
+        binder.bind(OpenNlpService.class).asEagerSingleton();
+        binder.bind(OpenNlpModelWatcher.class).asEagerSingleton();
+    }
+}
@@ -19,7 +19,13 @@ package org.elasticsearch.plugin.opennlp;
 
 import org.elasticsearch.common.component.LifecycleComponent;
 import org.elasticsearch.common.inject.Module;
+import org.elasticsearch.index.analysis.AnalysisModule;
+import org.elasticsearch.index.analysis.opennlp.OpenNlpTokenFilterFactory;
 import org.elasticsearch.plugins.AbstractPlugin;
+import org.elasticsearch.rest.RestModule;
+import org.elasticsearch.rest.action.opennlp.RestOpenNlpReloadAction;
+import org.elasticsearch.rest.action.opennlp.RestOpenNlpStatsAction;
+import org.elasticsearch.service.opennlp.OpenNlpModelWatcher;
 import org.elasticsearch.service.opennlp.OpenNlpService;
 
 import java.util.Collection;
@@ -36,13 +42,29 @@ public class OpenNlpPlugin extends AbstractPlugin {
         return "OpenNLP Type Plugin";
     }
 
+    @Override public Collection<Class<? extends Module>> modules() {
+        Collection<Class<? extends Module>> modules = newArrayList();
+        modules.add(OpenNlpModule.class);
+        return modules;
+    }
+
     @SuppressWarnings("rawtypes")
     @Override public Collection<Class<? extends LifecycleComponent>> services() {
         Collection<Class<? extends LifecycleComponent>> services = newArrayList();
         services.add(OpenNlpService.class);
+        services.add(OpenNlpModelWatcher.class);
         return services;
     }
 
+    public void onModule(RestModule module) {
+        module.addRestAction(RestOpenNlpReloadAction.class);
+        module.addRestAction(RestOpenNlpStatsAction.class);
+    }
+
+    public void onModule(AnalysisModule module) {
+        module.addTokenFilter("opennlp", OpenNlpTokenFilterFactory.class);
+    }
+
     public Collection<Class<? extends Module>> indexModules() {
         Collection<Class<? extends Module>> modules = newArrayList();
         modules.add(OpenNlpIndexModule.class);
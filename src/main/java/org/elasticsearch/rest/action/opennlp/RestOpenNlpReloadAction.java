@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.rest.action.opennlp;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.collect.ImmutableSet;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.*;
+import org.elasticsearch.service.opennlp.OpenNlpService;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import java.io.IOException;
+import java.util.Set;
+
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+import static org.elasticsearch.rest.RestStatus.OK;
+import static org.elasticsearch.rest.action.support.RestXContentBuilder.restContentBuilder;
+
+/**
+ * Reloads all or one model of the node handling the request, without restarting it.
+ * The models are loaded on the generic thread pool and the response is sent once they are in use
+ */
+public class RestOpenNlpReloadAction extends BaseRestHandler {
+
+    private final OpenNlpService openNlpService;
+    private final ThreadPool threadPool;
+
+    @Inject public RestOpenNlpReloadAction(Settings settings, Client client, RestController controller,
+                                           OpenNlpService openNlpService, ThreadPool threadPool) {
+        super(settings, client);
+        this.openNlpService = openNlpService;
+        this.threadPool = threadPool;
+        controller.registerHandler(POST, "/_opennlp/reload", this);
+        controller.registerHandler(POST, "/_opennlp/reload/{type}", this);
+    }
+
+    @Override
+    public void handleRequest(final RestRequest request, final RestChannel channel) {
+        String type = request.param("type");
+        final Set<String> types = type == null ? openNlpService.modelTypes() : ImmutableSet.of(type);
+
+        threadPool.generic().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (String type : types) {
+                        openNlpService.reload(type);
+                    }
+
+                    XContentBuilder builder = restContentBuilder(request);
+                    builder.startObject();
+                    builder.field("ok", true);
+                    builder.array("reloaded", types.toArray(new String[types.size()]));
+                    builder.field("models_version", openNlpService.models().version());
+                    builder.endObject();
+                    channel.sendResponse(new XContentRestResponse(request, OK, builder));
+                } catch (Throwable e) {
+                    try {
+                        channel.sendResponse(new XContentThrowableRestResponse(request, e));
+                    } catch (IOException e1) {
+                        logger.error("Failed to send failure response", e1);
+                    }
+                }
+            }
+        });
+    }
+}
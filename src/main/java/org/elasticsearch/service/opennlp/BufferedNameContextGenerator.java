@@ -0,0 +1,291 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import opennlp.tools.namefind.NameContextGenerator;
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.util.featuregen.AdaptiveFeatureGenerator;
+import opennlp.tools.util.featuregen.FeatureGeneratorUtil;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates the same features in the same order as the DefaultNameContextGenerator with the default feature generators
+ * of NameFinderME, which are used by every model without a feature generator descriptor.
+ * <p>
+ * The lowercased token and the token class are computed once per token instead of for every window they appear in,
+ * and every feature is assembled in a reused char buffer and looked up in a table of recently created features, so that
+ * the strings of frequent features are not allocated again for every token and every beam. As the returned strings are
+ * reused, their hash codes are cached as well when the model looks them up.
+ * <p>
+ * Like the CachedFeatureGenerator of opennlp, which keeps the features of the last 100 tokens, the features of a token
+ * depend on the adaptive data at the time they were first created for the same token array
+ */
+public class BufferedNameContextGenerator implements NameContextGenerator {
+
+    private static final int WINDOW_SIZE = 2;
+    // the size of the CachedFeatureGenerator of the default feature generators
+    private static final int OPENNLP_CACHE_SIZE = 100;
+
+    private final FeatureTable featureTable = new FeatureTable(4096);
+    private final Map<String, String> previousMap = Maps.newHashMap();
+    private final List<AdaptiveFeatureGenerator> featureGenerators = Lists.newArrayList();
+    private final List<String> generatedFeatures = Lists.newArrayList();
+
+    private char[] buffer = new char[64];
+    private int length;
+    private int hash;
+
+    private String[] tokens;
+    private int lastIndex;
+    private String[] lowercaseTokens = new String[0];
+    private String[] tokenClasses = new String[0];
+    private String[] previousMapFeatures = new String[0];
+
+    private int featuresIndex = -1;
+    private String[] tokenFeatures = new String[64];
+    private int tokenFeaturesCount;
+
+    @Override
+    public String[] getContext(int index, String[] tokens, String[] preds, Object[] additionalContext) {
+        prepare(tokens, index);
+        if (featuresIndex != index) {
+            createTokenFeatures(index);
+        }
+        for (AdaptiveFeatureGenerator featureGenerator : featureGenerators) {
+            featureGenerator.createFeatures(generatedFeatures, tokens, index, preds);
+        }
+
+        String po = index > 0 ? preds[index - 1] : NameFinderME.OTHER;
+        String ppo = index > 1 ? preds[index - 2] : NameFinderME.OTHER;
+
+        String[] context = new String[tokenFeaturesCount + generatedFeatures.size() + 4];
+        System.arraycopy(tokenFeatures, 0, context, 0, tokenFeaturesCount);
+        int pos = tokenFeaturesCount;
+        for (int i = 0; i < generatedFeatures.size(); i++) {
+            context[pos++] = generatedFeatures.get(i);
+        }
+        generatedFeatures.clear();
+        context[pos++] = start("po=").append(po).feature();
+        context[pos++] = start("pow=").append(po).append(',').append(tokens[index]).feature();
+        context[pos++] = start("powf=").append(po).append(',').append(tokenClasses[index]).feature();
+        context[pos] = start("ppo=").append(ppo).feature();
+        return context;
+    }
+
+    @Override
+    public void addFeatureGenerator(AdaptiveFeatureGenerator generator) {
+        featureGenerators.add(generator);
+    }
+
+    @Override
+    public void updateAdaptiveData(String[] tokens, String[] outcomes) {
+        for (int i = 0; i < tokens.length; i++) {
+            previousMap.put(tokens[i], outcomes[i]);
+        }
+        for (AdaptiveFeatureGenerator featureGenerator : featureGenerators) {
+            featureGenerator.updateAdaptiveData(tokens, outcomes);
+        }
+    }
+
+    @Override
+    public void clearAdaptiveData() {
+        previousMap.clear();
+        for (AdaptiveFeatureGenerator featureGenerator : featureGenerators) {
+            featureGenerator.clearAdaptiveData();
+        }
+    }
+
+    /*
+     * Computes the lowercased tokens and the token classes of a new token array, and forgets the adaptive
+     * features of the previous run over the same array where the cache of opennlp would have evicted them
+     */
+    private void prepare(String[] tokens, int index) {
+        if (tokens != this.tokens) {
+            this.tokens = tokens;
+            if (lowercaseTokens.length < tokens.length) {
+                lowercaseTokens = new String[tokens.length];
+                tokenClasses = new String[tokens.length];
+                previousMapFeatures = new String[tokens.length];
+            }
+            for (int i = 0; i < tokens.length; i++) {
+                lowercaseTokens[i] = tokens[i].toLowerCase();
+                tokenClasses[i] = FeatureGeneratorUtil.tokenFeature(tokens[i]);
+                previousMapFeatures[i] = null;
+            }
+            featuresIndex = -1;
+        } else if (index < lastIndex && tokens.length > OPENNLP_CACHE_SIZE) {
+            for (int i = 0; i < tokens.length; i++) {
+                previousMapFeatures[i] = null;
+            }
+            featuresIndex = -1;
+        }
+        lastIndex = index;
+    }
+
+    /* see WindowFeatureGenerator, TokenFeatureGenerator, TokenClassFeatureGenerator and the other default generators */
+    private void createTokenFeatures(int index) {
+        tokenFeaturesCount = 0;
+
+        addTokenFeature(start("w=").append(lowercaseTokens[index]).feature());
+        for (int i = 1; i <= WINDOW_SIZE; i++) {
+            if (index - i >= 0) {
+                addTokenFeature(startWindow('p', i).append("w=").append(lowercaseTokens[index - i]).feature());
+            }
+        }
+        for (int i = 1; i <= WINDOW_SIZE; i++) {
+            if (index + i < tokens.length) {
+                addTokenFeature(startWindow('n', i).append("w=").append(lowercaseTokens[index + i]).feature());
+            }
+        }
+
+        addTokenClassFeatures((char) 0, 0, index);
+        for (int i = 1; i <= WINDOW_SIZE; i++) {
+            if (index - i >= 0) {
+                addTokenClassFeatures('p', i, index - i);
+            }
+        }
+        for (int i = 1; i <= WINDOW_SIZE; i++) {
+            if (index + i < tokens.length) {
+                addTokenClassFeatures('n', i, index + i);
+            }
+        }
+
+        addTokenFeature("def");
+
+        if (previousMapFeatures[index] == null) {
+            previousMapFeatures[index] = start("pd=").append(previousMap.get(tokens[index])).feature();
+        }
+        addTokenFeature(previousMapFeatures[index]);
+
+        if (index > 0) {
+            addTokenFeature(start("pw,w=").append(tokens[index - 1]).append(',').append(tokens[index]).feature());
+            addTokenFeature(start("pwc,wc=").append(tokenClasses[index - 1]).append(',').append(tokenClasses[index]).feature());
+        }
+        if (index + 1 < tokens.length) {
+            addTokenFeature(start("w,nw=").append(tokens[index]).append(',').append(tokens[index + 1]).feature());
+            addTokenFeature(start("wc,nc=").append(tokenClasses[index]).append(',').append(tokenClasses[index + 1]).feature());
+        }
+
+        if (index == 0) {
+            addTokenFeature("S=begin");
+        }
+        featuresIndex = index;
+    }
+
+    /* the prefix is 0 for the token itself */
+    private void addTokenClassFeatures(char prefix, int offset, int index) {
+        addTokenFeature(startWindow(prefix, offset).append("wc=").append(tokenClasses[index]).feature());
+        addTokenFeature(startWindow(prefix, offset).append("w&c=").append(lowercaseTokens[index]).append(',')
+                .append(tokenClasses[index]).feature());
+    }
+
+    private void addTokenFeature(String feature) {
+        if (tokenFeaturesCount == tokenFeatures.length) {
+            String[] newTokenFeatures = new String[tokenFeatures.length * 2];
+            System.arraycopy(tokenFeatures, 0, newTokenFeatures, 0, tokenFeaturesCount);
+            tokenFeatures = newTokenFeatures;
+        }
+        tokenFeatures[tokenFeaturesCount++] = feature;
+    }
+
+    private BufferedNameContextGenerator start(String prefix) {
+        length = 0;
+        hash = 0;
+        return append(prefix);
+    }
+
+    /* the window prefixes, like p1 or n2 */
+    private BufferedNameContextGenerator startWindow(char prefix, int offset) {
+        length = 0;
+        hash = 0;
+        return prefix == 0 ? this : append(prefix).append((char) ('0' + offset));
+    }
+
+    private BufferedNameContextGenerator append(String s) {
+        if (s == null) {
+            return append("null");
+        }
+        ensureCapacity(length + s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            buffer[length++] = c;
+            hash = 31 * hash + c;
+        }
+        return this;
+    }
+
+    private BufferedNameContextGenerator append(char c) {
+        ensureCapacity(length + 1);
+        buffer[length++] = c;
+        hash = 31 * hash + c;
+        return this;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            char[] newBuffer = new char[Math.max(capacity, buffer.length * 2)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+
+    /* the string of the buffer, reused if it was created recently */
+    private String feature() {
+        return featureTable.get(buffer, length, hash);
+    }
+
+    /**
+     * A direct mapped table of strings, a string replaces the one in its slot if they differ
+     */
+    static class FeatureTable {
+        private final String[] features;
+        private final int mask;
+
+        FeatureTable(int size) {
+            this.features = new String[size];
+            this.mask = size - 1;
+        }
+
+        String get(char[] buffer, int length, int hash) {
+            int slot = (hash ^ (hash >>> 16)) & mask;
+            String feature = features[slot];
+            if (feature != null && feature.hashCode() == hash && contentEquals(feature, buffer, length)) {
+                return feature;
+            }
+            feature = new String(buffer, 0, length);
+            features[slot] = feature;
+            return feature;
+        }
+
+        private static boolean contentEquals(String feature, char[] buffer, int length) {
+            if (feature.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (feature.charAt(i) != buffer[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
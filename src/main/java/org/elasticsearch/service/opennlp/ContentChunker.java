@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+/**
+ * Splits content into consecutive chunks of at most chunkSize characters.
+ * A chunk ends after the last sentence in the window if there is one, otherwise at the last
+ * whitespace, and only if there is none of both the window is cut hard.
+ * The offsets of a chunk are document offsets, so spans found in a chunk can be mapped back
+ */
+public class ContentChunker {
+
+    private final String content;
+    private final int chunkSize;
+    private int start = 0;
+    private int end = 0;
+
+    public ContentChunker(String content, int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be positive, but was " + chunkSize);
+        }
+        this.content = content;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Advances to the next chunk, returns false if the whole content has been consumed
+     */
+    public boolean next() {
+        start = end;
+        while (start < content.length() && Character.isWhitespace(content.charAt(start))) {
+            start++;
+        }
+        if (start >= content.length()) {
+            return false;
+        }
+
+        int limit = start + chunkSize;
+        if (limit >= content.length()) {
+            end = content.length();
+            return true;
+        }
+
+        end = lastBreak(limit);
+        return true;
+    }
+
+    public int start() {
+        return start;
+    }
+
+    public int end() {
+        return end;
+    }
+
+    public String chunk() {
+        return content.substring(start, end);
+    }
+
+    /*
+     * The character at limit is the first one not fitting into the window
+     */
+    private int lastBreak(int limit) {
+        int whitespace = -1;
+        for (int i = limit; i > start; i--) {
+            if (Character.isWhitespace(content.charAt(i))) {
+                if (isSentenceEnd(content.charAt(i - 1))) {
+                    return i;
+                }
+                if (whitespace == -1) {
+                    whitespace = i;
+                }
+            }
+        }
+        return whitespace == -1 ? limit : whitespace;
+    }
+
+    private static boolean isSentenceEnd(char c) {
+        return c == '.' || c == '!' || c == '?' || c == '\n';
+    }
+}
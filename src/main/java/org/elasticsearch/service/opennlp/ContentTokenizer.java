@@ -0,0 +1,30 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+/**
+ * Splits content into tokens for the name finders. Implementations add the character offsets of the tokens to the
+ * given buffer instead of returning new spans, so that a buffer can be reused for all contents of a request
+ */
+public interface ContentTokenizer {
+
+    /**
+     * Adds the offsets of the tokens of this content in order, the buffer is not cleared before
+     */
+    void tokenize(String content, TokenOffsets offsets);
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import org.elasticsearch.ElasticSearchIllegalStateException;
+import org.elasticsearch.common.cache.*;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.unit.ByteSizeValue;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Caches the extracted entities by the SHA-256 hash of the content, the version of the loaded
+ * models, the selected types and the entity limits, so that documents indexed again with the same content do not need to run the models.
+ * Only the positions of the entities are cached, not the content. The cache is bounded by the estimated heap size of its entries
+ */
+public class EntityCache {
+
+    private static final int HASH_BUFFER_SIZE = 4096;
+
+    private final Cache<Key, EntitySpans> cache;
+    private final CounterMetric hits = new CounterMetric();
+    private final CounterMetric misses = new CounterMetric();
+    private final CounterMetric evictions = new CounterMetric();
+
+    public EntityCache(ByteSizeValue size) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(size.bytes())
+                .weigher(new EntityWeigher())
+                .removalListener(new RemovalListener<Key, EntitySpans>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Key, EntitySpans> notification) {
+                        if (notification.wasEvicted()) {
+                            evictions.inc();
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Returns the key to look up and store the entities extracted from this content with these models and limits
+     */
+    public Key key(String content, ModelSnapshot models, EntityLimits limits) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new ElasticSearchIllegalStateException("SHA-256 is not available", e);
+        }
+
+        // hash the UTF-16 code units, this is unambiguous and needs no copy of the whole content
+        byte[] buffer = new byte[Math.min(HASH_BUFFER_SIZE, content.length() * 2)];
+        int position = 0;
+        for (int i = 0; i < content.length(); i++) {
+            if (position == buffer.length) {
+                digest.update(buffer, 0, position);
+                position = 0;
+            }
+            char c = content.charAt(i);
+            buffer[position++] = (byte) (c >> 8);
+            buffer[position++] = (byte) c;
+        }
+        digest.update(buffer, 0, position);
+
+        return new Key(digest.digest(), models.version(), models.types(), limits);
+    }
+
+    public EntitySpans get(Key key) {
+        EntitySpans entities = cache.getIfPresent(key);
+        if (entities == null) {
+            misses.inc();
+        } else {
+            hits.inc();
+        }
+        return entities;
+    }
+
+    /**
+     * Stores the entities, which must not be modified anymore
+     */
+    public void put(Key key, EntitySpans entities) {
+        cache.put(key, entities);
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public long count() {
+        return cache.size();
+    }
+
+    public long hits() {
+        return hits.count();
+    }
+
+    public long misses() {
+        return misses.count();
+    }
+
+    public long evictions() {
+        return evictions.count();
+    }
+
+    public static class Key {
+        private final byte[] hash;
+        private final long modelsVersion;
+        private final String[] types;
+        private final EntityLimits limits;
+        private final int hashCode;
+
+        Key(byte[] hash, long modelsVersion, String[] types, EntityLimits limits) {
+            this.hash = hash;
+            this.modelsVersion = modelsVersion;
+            this.types = types;
+            this.limits = limits;
+            int hashCode = 31 * (31 * Arrays.hashCode(hash) + (int) (modelsVersion ^ (modelsVersion >>> 32))) + Arrays.hashCode(types);
+            this.hashCode = 31 * hashCode + limits.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return modelsVersion == key.modelsVersion && Arrays.equals(hash, key.hash) && Arrays.equals(types, key.types) &&
+                    limits.equals(key.limits);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    static class EntityWeigher implements Weigher<Key, EntitySpans> {
+        @Override
+        public int weigh(Key key, EntitySpans entities) {
+            return (int) Math.min(Integer.MAX_VALUE, 96 + entities.sizeInBytes());
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.common.collect.ImmutableMap;
+import org.elasticsearch.common.collect.Maps;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.Map;
+
+/**
+ * The minimum probability and the maximum number of entities per type, a limit without type applies to all types.
+ * Spans below the minimum probability are dropped right after the model found them, before the conflicts between
+ * the types are resolved, and only the most probable entities of a type are kept in a content.
+ * <p>
+ * The maximum number of characters and tokens and the maximum time bound the extraction of all contents passed to
+ * the service at once, like the values of a field. Once one is exceeded, the remaining content is not extracted and
+ * the entities are marked as limited, or are dropped completely if the limited contents should be skipped
+ */
+public class EntityLimits {
+
+    public static final EntityLimits NONE = new Builder().build();
+
+    private final Double minProbability;
+    private final Integer maxEntities;
+    private final ImmutableMap<String, Double> typeMinProbabilities;
+    private final ImmutableMap<String, Integer> typeMaxEntities;
+    private final Integer maxChars;
+    private final Integer maxTokens;
+    private final TimeValue maxTime;
+    private final boolean skip;
+
+    private EntityLimits(Double minProbability, Integer maxEntities, ImmutableMap<String, Double> typeMinProbabilities,
+                         ImmutableMap<String, Integer> typeMaxEntities, Integer maxChars, Integer maxTokens,
+                         TimeValue maxTime, boolean skip) {
+        this.minProbability = minProbability;
+        this.maxEntities = maxEntities;
+        this.typeMinProbabilities = typeMinProbabilities;
+        this.typeMaxEntities = typeMaxEntities;
+        this.maxChars = maxChars;
+        this.maxTokens = maxTokens;
+        this.maxTime = maxTime;
+        this.skip = skip;
+    }
+
+    public double minProbability(String type) {
+        Double typeMinProbability = typeMinProbabilities.get(type);
+        if (typeMinProbability != null) {
+            return typeMinProbability;
+        }
+        return minProbability == null ? 0 : minProbability;
+    }
+
+    public int maxEntities(String type) {
+        Integer typeMax = typeMaxEntities.get(type);
+        if (typeMax != null) {
+            return typeMax;
+        }
+        return maxEntities == null ? Integer.MAX_VALUE : maxEntities;
+    }
+
+    /**
+     * Returns true if the number of entities of any type is limited
+     */
+    public boolean limitsEntities() {
+        return maxEntities != null || !typeMaxEntities.isEmpty();
+    }
+
+    /**
+     * Returns true if the contents, their tokens or the time to extract them are bounded
+     */
+    public boolean limitsExtraction() {
+        return maxChars != null || maxTokens != null || maxTime != null;
+    }
+
+    /**
+     * Returns true if the entities of limited contents are dropped instead of keeping those found until the limit
+     */
+    public boolean skip() {
+        return skip;
+    }
+
+    /* the limits as configured, used to serialize them */
+
+    public Double minProbability() {
+        return minProbability;
+    }
+
+    public Integer maxEntities() {
+        return maxEntities;
+    }
+
+    public Map<String, Double> typeMinProbabilities() {
+        return typeMinProbabilities;
+    }
+
+    public Map<String, Integer> typeMaxEntities() {
+        return typeMaxEntities;
+    }
+
+    public Integer maxChars() {
+        return maxChars;
+    }
+
+    public Integer maxTokens() {
+        return maxTokens;
+    }
+
+    public TimeValue maxTime() {
+        return maxTime;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        EntityLimits that = (EntityLimits) o;
+        return (minProbability == null ? that.minProbability == null : minProbability.equals(that.minProbability)) &&
+                (maxEntities == null ? that.maxEntities == null : maxEntities.equals(that.maxEntities)) &&
+                typeMinProbabilities.equals(that.typeMinProbabilities) && typeMaxEntities.equals(that.typeMaxEntities) &&
+                (maxChars == null ? that.maxChars == null : maxChars.equals(that.maxChars)) &&
+                (maxTokens == null ? that.maxTokens == null : maxTokens.equals(that.maxTokens)) &&
+                (maxTime == null ? that.maxTime == null : that.maxTime != null && maxTime.nanos() == that.maxTime.nanos()) &&
+                skip == that.skip;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = minProbability != null ? minProbability.hashCode() : 0;
+        result = 31 * result + (maxEntities != null ? maxEntities.hashCode() : 0);
+        result = 31 * result + typeMinProbabilities.hashCode();
+        result = 31 * result + typeMaxEntities.hashCode();
+        result = 31 * result + (maxChars != null ? maxChars.hashCode() : 0);
+        result = 31 * result + (maxTokens != null ? maxTokens.hashCode() : 0);
+        result = 31 * result + (maxTime != null ? (int) (maxTime.nanos() ^ (maxTime.nanos() >>> 32)) : 0);
+        result = 31 * result + (skip ? 1 : 0);
+        return result;
+    }
+
+    public static class Builder {
+
+        private Double minProbability;
+        private Integer maxEntities;
+        private Map<String, Double> typeMinProbabilities = Maps.newTreeMap();
+        private Map<String, Integer> typeMaxEntities = Maps.newTreeMap();
+        private Integer maxChars;
+        private Integer maxTokens;
+        private TimeValue maxTime;
+        private boolean skip = false;
+
+        /**
+         * Sets the minimum probability of the given type, or of all types if type is null
+         */
+        public Builder minProbability(String type, double minProbability) {
+            if (minProbability < 0 || minProbability > 1) {
+                throw new ElasticSearchIllegalArgumentException("min_probability must be between 0 and 1, but was " + minProbability);
+            }
+            if (type == null) {
+                this.minProbability = minProbability;
+            } else {
+                typeMinProbabilities.put(type, minProbability);
+            }
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of entities of the given type, or of all types if type is null
+         */
+        public Builder maxEntities(String type, int maxEntities) {
+            if (maxEntities < 0) {
+                throw new ElasticSearchIllegalArgumentException("max_entities must not be negative, but was " + maxEntities);
+            }
+            if (type == null) {
+                this.maxEntities = maxEntities;
+            } else {
+                typeMaxEntities.put(type, maxEntities);
+            }
+            return this;
+        }
+
+        public Builder maxChars(int maxChars) {
+            if (maxChars < 0) {
+                throw new ElasticSearchIllegalArgumentException("max_chars must not be negative, but was " + maxChars);
+            }
+            this.maxChars = maxChars;
+            return this;
+        }
+
+        public Builder maxTokens(int maxTokens) {
+            if (maxTokens < 0) {
+                throw new ElasticSearchIllegalArgumentException("max_tokens must not be negative, but was " + maxTokens);
+            }
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        public Builder maxTime(TimeValue maxTime) {
+            if (maxTime.nanos() < 0) {
+                throw new ElasticSearchIllegalArgumentException("max_time must not be negative, but was " + maxTime);
+            }
+            this.maxTime = maxTime;
+            return this;
+        }
+
+        /**
+         * Sets what happens to a limited content, truncate keeps the entities found until the limit, skip drops them
+         */
+        public Builder onLimit(String onLimit) {
+            if ("skip".equals(onLimit)) {
+                this.skip = true;
+            } else if ("truncate".equals(onLimit)) {
+                this.skip = false;
+            } else {
+                throw new ElasticSearchIllegalArgumentException("on_limit must be truncate or skip, but was " + onLimit);
+            }
+            return this;
+        }
+
+        public EntityLimits build() {
+            return new EntityLimits(minProbability, maxEntities, ImmutableMap.copyOf(typeMinProbabilities),
+                    ImmutableMap.copyOf(typeMaxEntities), maxChars, maxTokens, maxTime, skip);
+        }
+    }
+}
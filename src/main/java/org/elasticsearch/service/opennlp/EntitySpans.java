@@ -0,0 +1,241 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.collect.Maps;
+import org.elasticsearch.common.collect.Sets;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The entities found in one content, ordered by their position. An entity is stored as its type id and
+ * the character offsets in the content, so the text is only created by {@link #text(String, int)} when needed,
+ * and it is exactly the text of the content, including the whitespace and punctuation between its tokens.
+ * The offsets do not depend on the content instance, so the entities of equal contents can be shared
+ */
+public class EntitySpans {
+
+    private final String[] types;
+    private int[] typeIds;
+    private int[] starts;
+    private int[] ends;
+    private double[] probs;
+    private int size = 0;
+    private int tokenCount = 0;
+    private volatile boolean limited = false;
+
+    public EntitySpans(String[] types) {
+        this.types = types;
+        this.typeIds = new int[4];
+        this.starts = new int[4];
+        this.ends = new int[4];
+        this.probs = new double[4];
+    }
+
+    /*
+     * Makes room for the given number of entities to be added without growing the arrays each time
+     */
+    void reserve(int count) {
+        if (size + count > starts.length) {
+            int capacity = ArrayUtil.oversize(size + count, RamUsageEstimator.NUM_BYTES_DOUBLE);
+            typeIds = Arrays.copyOf(typeIds, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            probs = Arrays.copyOf(probs, capacity);
+        }
+    }
+
+    void add(int typeId, int start, int end, double prob) {
+        reserve(1);
+        typeIds[size] = typeId;
+        starts[size] = start;
+        ends[size] = end;
+        probs[size] = prob;
+        size++;
+    }
+
+    /*
+     * Keeps only the most probable entities of each type, indexed by type id, in their order.
+     * Of entities with the same probability the first ones are kept
+     */
+    void limit(int[] maxEntities) {
+        int[] counts = new int[types.length];
+        for (int i = 0; i < size; i++) {
+            counts[typeIds[i]]++;
+        }
+
+        double[] thresholds = null;
+        int[] tiesLeft = null;
+        for (int typeId = 0; typeId < types.length; typeId++) {
+            if (counts[typeId] <= maxEntities[typeId]) {
+                continue;
+            }
+            if (thresholds == null) {
+                thresholds = new double[types.length];
+                tiesLeft = new int[types.length];
+                Arrays.fill(thresholds, Double.NEGATIVE_INFINITY);
+                Arrays.fill(tiesLeft, Integer.MAX_VALUE);
+            }
+            if (maxEntities[typeId] == 0) {
+                thresholds[typeId] = Double.POSITIVE_INFINITY;
+                tiesLeft[typeId] = 0;
+                continue;
+            }
+            // the probability of the last kept entity and how many of the entities with it are kept
+            double[] typeProbs = new double[counts[typeId]];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (typeIds[i] == typeId) {
+                    typeProbs[count++] = probs[i];
+                }
+            }
+            Arrays.sort(typeProbs);
+            double threshold = typeProbs[typeProbs.length - maxEntities[typeId]];
+            int above = 0;
+            for (double prob : typeProbs) {
+                if (prob > threshold) {
+                    above++;
+                }
+            }
+            thresholds[typeId] = threshold;
+            tiesLeft[typeId] = maxEntities[typeId] - above;
+        }
+        if (thresholds == null) {
+            return;
+        }
+
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int typeId = typeIds[i];
+            if (probs[i] < thresholds[typeId] || (probs[i] == thresholds[typeId] && tiesLeft[typeId]-- <= 0)) {
+                continue;
+            }
+            typeIds[kept] = typeId;
+            starts[kept] = starts[i];
+            ends[kept] = ends[i];
+            probs[kept] = probs[i];
+            kept++;
+        }
+        size = kept;
+    }
+
+    /*
+     * Marks the entities as incomplete, because a limit of the extraction was exceeded
+     */
+    void markLimited() {
+        limited = true;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /*
+     * Counts the tokens the entities were found in, so that a cached content takes its share of max_tokens
+     */
+    void addTokens(int count) {
+        tokenCount += count;
+    }
+
+    /**
+     * Returns the number of tokens of the content which were extracted
+     */
+    public int tokenCount() {
+        return tokenCount;
+    }
+
+    /**
+     * Returns true if not the whole content was extracted, because a limit of the extraction was exceeded
+     */
+    public boolean limited() {
+        return limited;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The types the type ids refer to
+     */
+    public String[] types() {
+        return types;
+    }
+
+    public int typeId(int i) {
+        return typeIds[i];
+    }
+
+    public String type(int i) {
+        return types[typeIds[i]];
+    }
+
+    /**
+     * The offset of the first character of the entity in the content
+     */
+    public int start(int i) {
+        return starts[i];
+    }
+
+    /**
+     * The offset after the last character of the entity in the content
+     */
+    public int end(int i) {
+        return ends[i];
+    }
+
+    public double prob(int i) {
+        return probs[i];
+    }
+
+    public String text(String content, int i) {
+        return content.substring(starts[i], ends[i]);
+    }
+
+    /**
+     * Adds the distinct texts of the entities per type, the content has to be the one the entities were found in
+     */
+    public void addTo(String content, Map<String, Set<String>> namedEntities) {
+        for (int i = 0; i < size; i++) {
+            String type = types[typeIds[i]];
+            Set<String> entities = namedEntities.get(type);
+            if (entities == null) {
+                entities = Sets.newLinkedHashSet();
+                namedEntities.put(type, entities);
+            }
+            entities.add(text(content, i));
+        }
+    }
+
+    public Map<String, Set<String>> toNamedEntities(String content) {
+        Map<String, Set<String>> namedEntities = Maps.newHashMap();
+        addTo(content, namedEntities);
+        return namedEntities;
+    }
+
+    /**
+     * A rough estimation of the heap used, the types are shared and not counted
+     */
+    public long sizeInBytes() {
+        return 64 + starts.length * (3 * RamUsageEstimator.NUM_BYTES_INT + RamUsageEstimator.NUM_BYTES_DOUBLE);
+    }
+}
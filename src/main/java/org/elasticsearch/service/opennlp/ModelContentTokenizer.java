@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import opennlp.tools.tokenize.TokenizerME;
+import opennlp.tools.tokenize.TokenizerModel;
+import opennlp.tools.util.Span;
+import org.apache.lucene.util.CloseableThreadLocal;
+
+/**
+ * Tokenizes with a trained TokenizerModel, like en-token.bin. A TokenizerME is not thread safe, so there is one per thread
+ */
+public class ModelContentTokenizer implements ContentTokenizer {
+
+    private final TokenizerModel model;
+    private final CloseableThreadLocal<TokenizerME> tokenizers = new CloseableThreadLocal<TokenizerME>() {
+        @Override
+        protected TokenizerME initialValue() {
+            return new TokenizerME(model);
+        }
+    };
+
+    public ModelContentTokenizer(TokenizerModel model) {
+        this.model = model;
+    }
+
+    @Override
+    public void tokenize(String content, TokenOffsets offsets) {
+        for (Span span : tokenizers.get().tokenizePos(content)) {
+            offsets.add(span.getStart(), span.getEnd());
+        }
+    }
+
+    public void close() {
+        tokenizers.close();
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import opennlp.tools.namefind.TokenNameFinderModel;
+import org.elasticsearch.common.collect.ImmutableMap;
+import org.elasticsearch.common.collect.Maps;
+import org.elasticsearch.common.collect.Sets;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds the models of one node. Loaded models are published as an immutable {@link ModelSnapshot},
+ * which is replaced copy-on-write, so readers only need a volatile read.
+ * <p>
+ * The registry is ready once all expected models have either been loaded or failed to load
+ */
+public class ModelRegistry {
+
+    private volatile ModelSnapshot snapshot = ModelSnapshot.EMPTY;
+    private volatile boolean ready = false;
+
+    // guarded by this
+    private boolean expected = false;
+    private final Set<String> loading = Sets.newHashSet();
+    // copied on every change, so it can be read for every document without locking
+    private volatile ImmutableMap<String, Throwable> failures = ImmutableMap.of();
+
+    public ModelSnapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Marks these types as loading, the registry is not ready until all of them are loaded or failed
+     */
+    public synchronized void expect(Collection<String> types) {
+        expected = true;
+        loading.addAll(types);
+        updateReady();
+    }
+
+    /**
+     * Publishes a new snapshot containing this model and returns its version
+     */
+    public synchronized long publish(String type, TokenNameFinderModel model) {
+        snapshot = snapshot.with(type, model);
+        loading.remove(type);
+        if (failures.containsKey(type)) {
+            Map<String, Throwable> remaining = Maps.newHashMap(failures);
+            remaining.remove(type);
+            failures = ImmutableMap.copyOf(remaining);
+        }
+        updateReady();
+        return snapshot.version();
+    }
+
+    /**
+     * Records that a model which is not a name finder, like the tokenizer, is loaded or failed and used its fallback
+     */
+    public synchronized void loaded(String type) {
+        loading.remove(type);
+        updateReady();
+    }
+
+    /**
+     * Records that the model of this type could not be loaded, a previously loaded model is kept
+     */
+    public synchronized void failed(String type, Throwable failure) {
+        loading.remove(type);
+        Map<String, Throwable> allFailures = Maps.newHashMap(failures);
+        allFailures.put(type, failure);
+        failures = ImmutableMap.copyOf(allFailures);
+        updateReady();
+    }
+
+    public boolean ready() {
+        return ready;
+    }
+
+    /**
+     * Returns true if none of these types is loading, all types are checked if types is null
+     */
+    public boolean ready(Collection<String> types) {
+        if (ready) {
+            return true;
+        }
+        synchronized (this) {
+            return readyFor(types);
+        }
+    }
+
+    /**
+     * Waits until the registry is ready, returns false if it is not ready after the timeout
+     */
+    public boolean awaitReady(TimeValue timeout) throws InterruptedException {
+        return awaitReady(null, timeout);
+    }
+
+    /**
+     * Waits until none of these types is loading anymore, all types are waited for if types is null
+     */
+    public synchronized boolean awaitReady(Collection<String> types, TimeValue timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.nanos();
+        while (!readyFor(types)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(Math.max(1, remaining / 1000000));
+        }
+        return true;
+    }
+
+    public synchronized Set<String> loading() {
+        return Sets.newHashSet(loading);
+    }
+
+    /**
+     * Returns the failures of the types whose model could not be loaded, a type is removed once its model is loaded
+     */
+    public Map<String, Throwable> failures() {
+        return failures;
+    }
+
+    private boolean readyFor(Collection<String> types) {
+        if (ready || types == null || !expected) {
+            return ready;
+        }
+        for (String type : types) {
+            if (loading.contains(type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void updateReady() {
+        ready = expected && loading.isEmpty();
+        // waiting for some types only can end before the registry is ready
+        notifyAll();
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import opennlp.tools.namefind.TokenNameFinderModel;
+import org.elasticsearch.common.collect.ImmutableMap;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An immutable view of the loaded models. A new snapshot is published whenever a model is loaded
+ * or reloaded, so that a document is always processed with one consistent set of models
+ */
+public class ModelSnapshot {
+
+    public static final ModelSnapshot EMPTY = new ModelSnapshot(ImmutableMap.<String, TokenNameFinderModel>of(), 0);
+
+    private final ImmutableMap<String, TokenNameFinderModel> models;
+    // type ids are assigned in the order of the type names, as required by the conflict resolver
+    private final String[] types;
+    private final TokenNameFinderModel[] modelsByTypeId;
+    private final long version;
+    // selections are requested per document, but there are only as many distinct ones as opennlp fields
+    private final ConcurrentMap<Collection<String>, ModelSnapshot> selections = ConcurrentCollections.newConcurrentMap();
+
+    private ModelSnapshot(ImmutableMap<String, TokenNameFinderModel> models, long version) {
+        this.models = models;
+        this.version = version;
+        this.types = models.keySet().toArray(new String[models.size()]);
+        Arrays.sort(types);
+        this.modelsByTypeId = new TokenNameFinderModel[types.length];
+        for (int typeId = 0; typeId < types.length; typeId++) {
+            modelsByTypeId[typeId] = models.get(types[typeId]);
+        }
+    }
+
+    /**
+     * Returns a new snapshot with the model of this type added or replaced
+     */
+    public ModelSnapshot with(String type, TokenNameFinderModel model) {
+        ImmutableMap.Builder<String, TokenNameFinderModel> builder = ImmutableMap.builder();
+        for (Map.Entry<String, TokenNameFinderModel> entry : models.entrySet()) {
+            if (!entry.getKey().equals(type)) {
+                builder.put(entry);
+            }
+        }
+        builder.put(type, model);
+        return new ModelSnapshot(builder.build(), version + 1);
+    }
+
+    /**
+     * Returns a snapshot with the same version, which contains only those of the given types that are loaded
+     */
+    public ModelSnapshot select(Collection<String> selectedTypes) {
+        ModelSnapshot selection = selections.get(selectedTypes);
+        if (selection == null) {
+            ImmutableMap.Builder<String, TokenNameFinderModel> builder = ImmutableMap.builder();
+            for (Map.Entry<String, TokenNameFinderModel> entry : models.entrySet()) {
+                if (selectedTypes.contains(entry.getKey())) {
+                    builder.put(entry);
+                }
+            }
+            selection = new ModelSnapshot(builder.build(), version);
+            selections.putIfAbsent(selectedTypes, selection);
+        }
+        return selection;
+    }
+
+    public Map<String, TokenNameFinderModel> models() {
+        return models;
+    }
+
+    public TokenNameFinderModel model(String type) {
+        return models.get(type);
+    }
+
+    TokenNameFinderModel model(int typeId) {
+        return modelsByTypeId[typeId];
+    }
+
+    /* the sorted types, must not be modified */
+    String[] types() {
+        return types;
+    }
+
+    /**
+     * Increases with every published snapshot, so it can be used to invalidate data extracted with older models
+     */
+    public long version() {
+        return version;
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import org.apache.lucene.util.CloseableThreadLocal;
+import org.elasticsearch.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps one NameFinderME per model type and thread, as a NameFinderME is not thread safe
+ * but expensive enough to not create it for every document.
+ * Callers have to call {@link #release(NameFinderME)} after a document has been processed,
+ * so that the adaptive data of one document does not leak into the next one.
+ * Finders of models with the default features use a {@link BufferedNameContextGenerator}.
+ * The finders are tagged with the version of the models snapshot, so a thread drops all of its finders once it
+ * uses newer models, and {@link #invalidate()} drops the finders of all threads, also of the idle ones
+ */
+public class NameFinderPool {
+
+    // the finders of every thread, so they can be dropped from another thread, dead threads are removed by the GC
+    private final Set<ThreadFinders> allFinders = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<ThreadFinders, Boolean>()));
+
+    private final CloseableThreadLocal<ThreadFinders> finders = new CloseableThreadLocal<ThreadFinders>() {
+        @Override
+        protected ThreadFinders initialValue() {
+            ThreadFinders threadFinders = new ThreadFinders();
+            allFinders.add(threadFinders);
+            return threadFinders;
+        }
+    };
+
+    /**
+     * Returns the finder of the current thread for this type. A new one is created if the model has been changed since
+     * the finder was created, finders of older models versions are dropped. A finder for a model older than the ones
+     * pooled by this thread, like one of a document processed during a reload, is not pooled
+     */
+    public NameFinderME acquire(String type, TokenNameFinderModel model, long modelsVersion) {
+        ThreadFinders threadFinders = finders.get();
+        synchronized (threadFinders) {
+            if (modelsVersion > threadFinders.version) {
+                threadFinders.finders.clear();
+                threadFinders.version = modelsVersion;
+            } else if (modelsVersion < threadFinders.version) {
+                return new PooledFinder(model).finder;
+            }
+            PooledFinder pooledFinder = threadFinders.finders.get(type);
+            if (pooledFinder == null || pooledFinder.model != model) {
+                pooledFinder = new PooledFinder(model);
+                threadFinders.finders.put(type, pooledFinder);
+            }
+            return pooledFinder.finder;
+        }
+    }
+
+    public void release(NameFinderME finder) {
+        finder.clearAdaptiveData();
+    }
+
+    /**
+     * Drops the pooled finders of all threads, so that replaced models are not referenced anymore
+     */
+    public void invalidate() {
+        synchronized (allFinders) {
+            for (ThreadFinders threadFinders : allFinders) {
+                synchronized (threadFinders) {
+                    threadFinders.finders.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of pooled finders of all threads
+     */
+    public int size() {
+        int size = 0;
+        synchronized (allFinders) {
+            for (ThreadFinders threadFinders : allFinders) {
+                synchronized (threadFinders) {
+                    size += threadFinders.finders.size();
+                }
+            }
+        }
+        return size;
+    }
+
+    public void close() {
+        finders.close();
+    }
+
+    /* guarded by itself, it is only contended while the finders are dropped */
+    private static class ThreadFinders {
+        private final Map<String, PooledFinder> finders = Maps.newHashMap();
+        private long version = -1;
+    }
+
+    private static class PooledFinder {
+        private final TokenNameFinderModel model;
+        private final NameFinderME finder;
+
+        PooledFinder(TokenNameFinderModel model) {
+            this.model = model;
+            if (model.createFeatureGenerators() == null) {
+                // the model uses the default features
+                this.finder = bufferedFinder(model);
+            } else {
+                this.finder = new NameFinderME(model);
+            }
+        }
+
+        /*
+         * Only the deprecated constructors take a context generator. The others wrap the feature generators in a
+         * DefaultNameContextGenerator and create the beam search with it, which is private, so the previous outcome
+         * features of every token and beam would be concatenated again instead of coming from the reused buffer
+         */
+        @SuppressWarnings("deprecation")
+        private static NameFinderME bufferedFinder(TokenNameFinderModel model) {
+            return new NameFinderME(model.getNameFinderModel(), new BufferedNameContextGenerator(), NameFinderME.DEFAULT_BEAM_SIZE);
+        }
+    }
+}
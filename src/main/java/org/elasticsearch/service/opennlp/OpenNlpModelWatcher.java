@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.FileChangesListener;
+import org.elasticsearch.watcher.FileWatcher;
+import org.elasticsearch.watcher.ResourceWatcherService;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Reloads a model when its file has been changed, if opennlp.models.watch is set.
+ * Files are checked every watcher.interval, a changed model is loaded on the generic thread pool
+ */
+public class OpenNlpModelWatcher extends AbstractLifecycleComponent<OpenNlpModelWatcher> {
+
+    private final OpenNlpService openNlpService;
+    private final ResourceWatcherService resourceWatcherService;
+    private final ThreadPool threadPool;
+    private final List<FileWatcher> fileWatchers = Lists.newArrayList();
+
+    @Inject public OpenNlpModelWatcher(Settings settings, OpenNlpService openNlpService,
+                                       ResourceWatcherService resourceWatcherService, ThreadPool threadPool) {
+        super(settings);
+        this.openNlpService = openNlpService;
+        this.resourceWatcherService = resourceWatcherService;
+        this.threadPool = threadPool;
+    }
+
+    @Override
+    protected void doStart() throws ElasticSearchException {
+        if (!settings.getAsBoolean("opennlp.models.watch", false)) {
+            return;
+        }
+
+        for (String type : openNlpService.modelTypes()) {
+            FileWatcher fileWatcher = new FileWatcher(openNlpService.modelFile(type));
+            fileWatcher.addListener(new ModelFileListener(type));
+            resourceWatcherService.add(fileWatcher);
+            fileWatchers.add(fileWatcher);
+            logger.debug("Watching model file {} of type [{}]", openNlpService.modelFile(type), type);
+        }
+    }
+
+    @Override
+    protected void doStop() throws ElasticSearchException {
+        for (FileWatcher fileWatcher : fileWatchers) {
+            resourceWatcherService.remove(fileWatcher);
+        }
+        fileWatchers.clear();
+    }
+
+    @Override
+    protected void doClose() throws ElasticSearchException {
+    }
+
+    class ModelFileListener extends FileChangesListener {
+
+        private final String type;
+
+        ModelFileListener(String type) {
+            this.type = type;
+        }
+
+        @Override
+        public void onFileCreated(File file) {
+            reload();
+        }
+
+        @Override
+        public void onFileChanged(File file) {
+            reload();
+        }
+
+        // loading a model takes a while, so it is not done on the scheduler thread of the watcher
+        private void reload() {
+            threadPool.generic().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        openNlpService.reload(type);
+                    } catch (Exception e) {
+                        logger.error("Failed to reload model of type [{}], keeping the previous one", e, type);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -19,176 +19,1100 @@ package org.elasticsearch.service.opennlp;
 
 import opennlp.tools.namefind.NameFinderME;
 import opennlp.tools.namefind.TokenNameFinderModel;
-import opennlp.tools.tokenize.SimpleTokenizer;
+import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.tokenize.TokenizerModel;
 import opennlp.tools.util.Span;
 import org.elasticsearch.ElasticSearchException;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
 import org.elasticsearch.common.StopWatch;
-import org.elasticsearch.common.base.Joiner;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.collect.ImmutableSet;
+import org.elasticsearch.common.collect.Lists;
 import org.elasticsearch.common.collect.Maps;
 import org.elasticsearch.common.collect.Sets;
 import org.elasticsearch.common.component.AbstractLifecycleComponent;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.service.opennlp.models.CompactTokenNameFinderModel;
 import org.elasticsearch.service.opennlp.models.PooledTokenNameFinderModel;
-import org.elasticsearch.service.opennlp.models.TextAnnotation;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 public class OpenNlpService extends AbstractLifecycleComponent<OpenNlpService> {
 
-    private static Map<String, TokenNameFinderModel> finders = Maps.newHashMap();
+    // compact models on the heap, compact models mapped from files, or the structures of opennlp itself
+    private static final String STORAGE_HEAP = "heap";
+    private static final String STORAGE_MAPPED = "mapped";
+    private static final String STORAGE_OPENNLP = "opennlp";
+
+    // the tokenizers, the model one needs opennlp.models.tokenizer.file
+    private static final String TOKENIZER_SIMPLE = "simple";
+    private static final String TOKENIZER_WHITESPACE = "whitespace";
+    private static final String TOKENIZER_MODEL = "model";
+    // types of opennlp.models.<type>.file which are no entity types
+    private static final ImmutableSet<String> RESERVED_TYPES = ImmutableSet.of("tokenizer", "sentence");
+
+    private final ModelRegistry registry = new ModelRegistry();
+    private final ImmutableSet<String> modelTypes;
+    // the configured models of RESERVED_TYPES, which are needed for every entity type
+    private final ImmutableSet<String> auxiliaryTypes;
+    // the types whose loading was started, with lazy loading only those used by a mapping
+    private final Set<String> requested = ConcurrentCollections.newConcurrentSet();
+    private volatile boolean auxiliaryRequested = false;
+    // the failed types a document asked for, each is logged once until its model is loaded
+    private final Set<String> warnedFailures = ConcurrentCollections.newConcurrentSet();
+    private final boolean lazy;
+    private final int loaderSize;
+    private volatile ExecutorService loader;
+    private final String storage;
+    private final File mappedDirectory;
+    private final TimeValue startTimeout;
+    private final TimeValue readyTimeout;
+    private final String tokenizerName;
+    private volatile ContentTokenizer tokenizer = SimpleContentTokenizer.INSTANCE;
+    private volatile SentenceSplitter sentenceSplitter;
+    private final NameFinderPool finderPool = new NameFinderPool();
+
+    private final boolean parallelModels;
+    private final int parallelModelsMinTokens;
+    private final int parallelModelsSize;
+    private final int parallelModelsQueueSize;
+    private volatile ExecutorService parallelModelsExecutor;
+    private final int chunkSize;
+    private final int batchMaxTokens;
+    private final EntityCache entityCache;
+    private final OpenNlpStats stats;
+    private final OpenNlpSlowLog slowLog;
 
     @Inject public OpenNlpService(Settings settings) {
         super(settings);
+        this.modelTypes = discoverModelTypes(settings);
+        this.lazy = settings.getAsBoolean("opennlp.models.lazy", false);
+        this.loaderSize = settings.getAsInt("opennlp.models.loader.size",
+                Math.max(1, Math.min(modelTypes.size(), EsExecutors.boundedNumberOfProcessors(settings))));
+        this.storage = settings.get("opennlp.models.storage", STORAGE_HEAP);
+        if (STORAGE_MAPPED.equals(storage)) {
+            File defaultDirectory = new File(settings.get("path.work", System.getProperty("java.io.tmpdir")), "opennlp");
+            this.mappedDirectory = new File(settings.get("opennlp.models.mapped.directory", defaultDirectory.getPath()));
+        } else if (STORAGE_HEAP.equals(storage) || STORAGE_OPENNLP.equals(storage)) {
+            this.mappedDirectory = null;
+        } else {
+            throw new ElasticSearchIllegalArgumentException("Unknown opennlp.models.storage [" + storage + "], use heap, mapped or opennlp");
+        }
+        this.startTimeout = settings.getAsTime("opennlp.models.start_timeout", TimeValue.timeValueSeconds(0));
+        this.readyTimeout = settings.getAsTime("opennlp.models.ready_timeout", TimeValue.timeValueSeconds(30));
+        this.tokenizerName = settings.get("opennlp.tokenizer", modelFile("tokenizer") == null ? TOKENIZER_SIMPLE : TOKENIZER_MODEL);
+        if (TOKENIZER_WHITESPACE.equals(tokenizerName)) {
+            this.tokenizer = WhitespaceContentTokenizer.INSTANCE;
+        } else if (TOKENIZER_MODEL.equals(tokenizerName) && modelFile("tokenizer") == null) {
+            throw new ElasticSearchIllegalArgumentException("opennlp.tokenizer [model] needs opennlp.models.tokenizer.file");
+        } else if (!TOKENIZER_SIMPLE.equals(tokenizerName) && !TOKENIZER_MODEL.equals(tokenizerName)) {
+            throw new ElasticSearchIllegalArgumentException("Unknown opennlp.tokenizer [" + tokenizerName + "], use simple, whitespace or model");
+        }
+        ImmutableSet.Builder<String> auxiliaryTypes = ImmutableSet.builder();
+        if (TOKENIZER_MODEL.equals(tokenizerName)) {
+            auxiliaryTypes.add("tokenizer");
+        }
+        if (modelFile("sentence") != null) {
+            auxiliaryTypes.add("sentence");
+        }
+        this.auxiliaryTypes = auxiliaryTypes.build();
+        this.parallelModels = settings.getAsBoolean("opennlp.parallel_models", false);
+        this.parallelModelsMinTokens = settings.getAsInt("opennlp.parallel_models.min_tokens", 1000);
+        this.parallelModelsSize = settings.getAsInt("opennlp.parallel_models.size", EsExecutors.boundedNumberOfProcessors(settings));
+        this.parallelModelsQueueSize = settings.getAsInt("opennlp.parallel_models.queue_size", 1000);
+        this.chunkSize = settings.getAsInt("opennlp.chunk_size", 0);
+        this.batchMaxTokens = settings.getAsInt("opennlp.batch.max_tokens", 10000);
+        ByteSizeValue cacheSize = settings.getAsBytesSize("opennlp.cache.size", new ByteSizeValue(0));
+        this.entityCache = cacheSize.bytes() > 0 ? new EntityCache(cacheSize) : null;
+        this.stats = new OpenNlpStats(registry, entityCache);
+        this.slowLog = new OpenNlpSlowLog(settings);
     }
 
     @Override
     protected void doStart() throws ElasticSearchException {
-        CountDownLatch countDownLatch = new CountDownLatch(3);
-        new Thread(new LoaderRunnable(settings, "opennlp.models.name.file", "name",  countDownLatch)).start();
-        new Thread(new LoaderRunnable(settings, "opennlp.models.date.file", "date",  countDownLatch)).start();
-        new Thread(new LoaderRunnable(settings, "opennlp.models.location.file", "location",  countDownLatch)).start();
-        try {
-            countDownLatch.await(10, TimeUnit.SECONDS);
-        } catch (InterruptedException e) {}
+        if (modelTypes.isEmpty()) {
+            logger.error("No OpenNLP model configured, set opennlp.models.<type>.file for every entity type to extract");
+        }
+
+        if (lazy) {
+            // nothing is loaded until a mapping or token filter uses a type
+            logger.debug("Loading models {} lazily", modelTypes);
+        } else {
+            load(modelTypes);
+        }
+        registry.expect(Collections.<String>emptySet());
+
+        // the node does not wait for the models by default, documents wait for the models they need
+        if (startTimeout.nanos() > 0) {
+            try {
+                if (!registry.awaitReady(startTimeout)) {
+                    logger.warn("Models {} are still loading after [{}], documents are processed once they are loaded",
+                            registry.loading(), startTimeout);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (parallelModels) {
+            logger.debug("Running models in parallel for documents with at least [{}] tokens, size [{}], queue_size [{}]",
+                    parallelModelsMinTokens, parallelModelsSize, parallelModelsQueueSize);
+            parallelModelsExecutor = EsExecutors.newFixed(parallelModelsSize, parallelModelsQueueSize,
+                    EsExecutors.daemonThreadFactory(settings, "opennlp_models"));
+        }
     }
 
     @Override
-    protected void doStop() throws ElasticSearchException {}
+    protected void doStop() throws ElasticSearchException {
+        if (parallelModelsExecutor != null) {
+            // the dropped models are cancelled, so that the extracting thread runs them itself instead of waiting for them
+            for (Runnable dropped : parallelModelsExecutor.shutdownNow()) {
+                if (dropped instanceof Future) {
+                    ((Future) dropped).cancel(false);
+                }
+            }
+            parallelModelsExecutor = null;
+        }
+    }
 
     @Override
-    protected void doClose() throws ElasticSearchException {}
+    protected void doClose() throws ElasticSearchException {
+        synchronized (requested) {
+            if (loader != null) {
+                loader.shutdownNow();
+                loader = null;
+            }
+        }
+        finderPool.close();
+        if (tokenizer instanceof ModelContentTokenizer) {
+            ((ModelContentTokenizer) tokenizer).close();
+        }
+        if (sentenceSplitter != null) {
+            sentenceSplitter.close();
+        }
+        if (entityCache != null) {
+            entityCache.clear();
+        }
+    }
+
+    /**
+     * Starts loading the models of these types, unless their loading was started already. Types without a
+     * configured model are ignored. The tokenizer and sentence models are loaded with the first type.
+     * With opennlp.models.lazy this is called by the mappings and token filters using the types
+     */
+    public void load(Collection<String> types) {
+        if (auxiliaryRequested && requested.containsAll(types)) {
+            return;
+        }
+        synchronized (requested) {
+            List<String> newTypes = Lists.newArrayList();
+            if (!auxiliaryRequested) {
+                newTypes.addAll(auxiliaryTypes);
+                auxiliaryRequested = true;
+            }
+            for (String type : types) {
+                if (modelTypes.contains(type) && !requested.contains(type)) {
+                    newTypes.add(type);
+                }
+            }
+            requested.addAll(types);
+            if (newTypes.isEmpty()) {
+                return;
+            }
+
+            registry.expect(newTypes);
+            if (loader == null) {
+                // the pool bounds the memory and CPU needed while parsing the models, its threads end once all are loaded
+                loader = EsExecutors.newScaling(0, loaderSize, 1, TimeUnit.MINUTES,
+                        EsExecutors.daemonThreadFactory(settings, "opennlp_loader"));
+            }
+            for (String type : newTypes) {
+                loader.execute(new LoaderRunnable(type));
+            }
+        }
+    }
+
+    /*
+     * The tokenizer model is needed by all entity types, which wait for it. If it cannot be loaded,
+     * the simple tokenizer is used, as the name finders are usually trained on similar tokens
+     */
+    private void loadTokenizer() {
+        File modelFile = modelFile("tokenizer");
+        StopWatch sw = new StopWatch("Loading tokenizer " + modelFile).start();
+        try {
+            InputStream inputStream = new FileInputStream(modelFile);
+            try {
+                tokenizer = new ModelContentTokenizer(new TokenizerModel(inputStream));
+            } finally {
+                inputStream.close();
+            }
+            sw.stop();
+            logger.info("Loaded tokenizer file {} in {}", modelFile, sw.totalTime());
+        } catch (Throwable t) {
+            logger.error("Error loading tokenizer file {}, using the simple tokenizer: {}", t, modelFile, t.getMessage());
+        }
+    }
+
+    /*
+     * Without a sentence model the contents are extracted as a whole or in chunks, like before
+     */
+    private void loadSentenceSplitter() {
+        File modelFile = modelFile("sentence");
+        StopWatch sw = new StopWatch("Loading sentence model " + modelFile).start();
+        try {
+            InputStream inputStream = new FileInputStream(modelFile);
+            try {
+                sentenceSplitter = new SentenceSplitter(new SentenceModel(inputStream));
+            } finally {
+                inputStream.close();
+            }
+            sw.stop();
+            logger.info("Loaded sentence model file {} in {}", modelFile, sw.totalTime());
+        } catch (Throwable t) {
+            logger.error("Error loading sentence model file {}, extracting without sentences: {}", t, modelFile, t.getMessage());
+        }
+    }
+
+    /**
+     * Returns the splitter of contents into sentences, or null if opennlp.models.sentence.file is not set
+     */
+    public SentenceSplitter sentenceSplitter() {
+        return sentenceSplitter;
+    }
+
+    /**
+     * Returns the tokenizer splitting the contents into the tokens for the models
+     */
+    public ContentTokenizer tokenizer() {
+        return tokenizer;
+    }
 
     class LoaderRunnable implements Runnable {
 
-        private Settings settings;
-        private String configParameter;
-        private String type;
-        private CountDownLatch countDownLatch;
+        private final String type;
 
-        public LoaderRunnable(Settings settings, String configParameter, String type, CountDownLatch countDownLatch) {
-            this.settings = settings;
-            this.configParameter = configParameter;
+        public LoaderRunnable(String type) {
             this.type = type;
-            this.countDownLatch = countDownLatch;
         }
 
+        /*
+         * every outcome is reported to the registry, so that waiting for readiness never depends on a timeout
+         */
         @Override
         public void run() {
-            String filePath = settings.get(configParameter, "");
-            if (filePath.length() == 0) {
-                logger.error("OpenNLP property [{}] is not set.", configParameter);
+            if (auxiliaryTypes.contains(type)) {
+                try {
+                    if ("tokenizer".equals(type)) {
+                        loadTokenizer();
+                    } else {
+                        loadSentenceSplitter();
+                    }
+                } finally {
+                    registry.loaded(type);
+                }
                 return;
             }
 
-            File modelFile = new File(filePath);
+            File modelFile = modelFile(type);
             if (!modelFile.exists() || !modelFile.canRead()) {
                 logger.error("Model file {} does not exist.", modelFile);
+                registry.failed(type, new FileNotFoundException(modelFile.toString()));
                 return;
             }
 
-            StopWatch sw = new StopWatch("Loading model " + filePath).start();
             try {
-                finders.put(type, 
-                        new PooledTokenNameFinderModel(
-                                new FileInputStream(modelFile)));
-            } catch (IOException e) {
-                logger.error("Error loading model file {}: {}", e, modelFile, e.getMessage());
+                publish(type, loadModel(modelFile));
+            } catch (Throwable t) {
+                logger.error("Error loading model file {}: {}", t, modelFile, t.getMessage());
+                registry.failed(type, t);
+            }
+        }
+    }
+
+    /**
+     * Loads the model of this type from its configured file and swaps it in once it is fully loaded.
+     * Documents processed meanwhile keep using the previous model, which is released afterwards
+     */
+    public void reload(String type) throws IOException {
+        if (!modelTypes.contains(type)) {
+            throw new ElasticSearchIllegalArgumentException("No model file configured for type [" + type + "]");
+        }
+        File modelFile = modelFile(type);
+        if (!modelFile.exists() || !modelFile.canRead()) {
+            throw new ElasticSearchIllegalArgumentException("Model file [" + modelFile + "] of type [" + type + "] does not exist");
+        }
+
+        long version = publish(type, loadModel(modelFile));
+        // idle threads would otherwise keep the finders of the previous model until they process the type again
+        finderPool.invalidate();
+        if (entityCache != null) {
+            // entities of older models are never returned again, this frees their memory early
+            entityCache.clear();
+        }
+        logger.info("Reloaded model of type [{}], models version is now [{}]", type, version);
+    }
+
+    private long publish(String type, TokenNameFinderModel model) {
+        stats.onLoad(type, model);
+        long version = registry.publish(type, model);
+        warnedFailures.remove(type);
+        return version;
+    }
+
+    /**
+     * Returns the types with a configured and enabled model file
+     */
+    public Set<String> modelTypes() {
+        return modelTypes;
+    }
+
+    /*
+     * every opennlp.models.<type>.file setting configures a type, unless opennlp.models.<type>.enabled is false
+     * or the type is the one of another model, like the tokenizer
+     */
+    private static ImmutableSet<String> discoverModelTypes(Settings settings) {
+        Set<String> types = Sets.newTreeSet();
+        Settings modelSettings = settings.getByPrefix("opennlp.models.");
+        for (String key : modelSettings.getAsMap().keySet()) {
+            int dotIndex = key.indexOf('.');
+            if (dotIndex > 0 && key.substring(dotIndex).equals(".file")) {
+                String type = key.substring(0, dotIndex);
+                if (!RESERVED_TYPES.contains(type) && modelSettings.getAsBoolean(type + ".enabled", true) &&
+                        modelSettings.get(key).length() > 0) {
+                    types.add(type);
+                }
+            }
+        }
+        return ImmutableSet.copyOf(types);
+    }
+
+    /**
+     * Returns the configured model file of this type, or null if none is configured
+     */
+    public File modelFile(String type) {
+        String filePath = settings.get("opennlp.models." + type + ".file", "");
+        return filePath.length() == 0 ? null : new File(filePath);
+    }
+
+    /**
+     * Returns the currently published models
+     */
+    public ModelSnapshot models() {
+        return registry.snapshot();
+    }
+
+    public NameFinderPool finderPool() {
+        return finderPool;
+    }
+
+    public ModelRegistry registry() {
+        return registry;
+    }
+
+    private TokenNameFinderModel loadModel(File modelFile) throws IOException {
+        StopWatch sw = new StopWatch("Loading model " + modelFile).start();
+        if (STORAGE_MAPPED.equals(storage)) {
+            try {
+                return CompactTokenNameFinderModel.load(modelFile, mappedDirectory);
+            } finally {
+                sw.stop();
+                logger.info("Loaded file {} mapped from {} in {}", modelFile, mappedDirectory, sw.totalTime());
+            }
+        } else if (STORAGE_HEAP.equals(storage)) {
+            try {
+                return CompactTokenNameFinderModel.load(modelFile);
             } finally {
                 sw.stop();
+                logger.info("Loaded file {} in {}", modelFile, sw.totalTime());
             }
+        }
+
+        InputStream inputStream = new FileInputStream(modelFile);
+        try {
+            return new PooledTokenNameFinderModel(inputStream);
+        } finally {
+            inputStream.close();
+            sw.stop();
             logger.info("Loaded file {} in {}", modelFile, sw.totalTime());
-            countDownLatch.countDown();
         }
     }
 
     public Map<String, Set<String>> tokenize(String content) {
-        Map<String, Set<String>> namedEntities = Maps.newHashMap();
+        return tokenize(content, null);
+    }
+
+    /**
+     * Extracts the entities of the given types only, all loaded types are extracted if types is null.
+     * Callers should pass the same collection for every document, as the selection is cached by it
+     */
+    public Map<String, Set<String>> tokenize(String content, Collection<String> types) {
+        return entities(content, types).toNamedEntities(content);
+    }
+
+    public List<Map<String, Set<String>>> tokenizeBatch(List<String> contents) {
+        return tokenizeBatch(contents, null);
+    }
 
-        List<TextAnnotation> allTextAnnotations = new ArrayList<TextAnnotation>();
-        String[] tokens = SimpleTokenizer.INSTANCE.tokenize(content);
-        for (Map.Entry<String, TokenNameFinderModel> finderEntry : finders.entrySet()) {
-            String type = finderEntry.getKey();
-            NameFinderME finder = new NameFinderME(finderEntry.getValue());
+    public List<Map<String, Set<String>>> tokenizeBatch(List<String> contents, Collection<String> types) {
+        List<EntitySpans> entities = entitiesBatch(contents, types);
+        List<Map<String, Set<String>>> namedEntities = Lists.newArrayListWithCapacity(contents.size());
+        for (int i = 0; i < contents.size(); i++) {
+            namedEntities.add(entities.get(i).toNamedEntities(contents.get(i)));
+        }
+        return namedEntities;
+    }
+
+    /**
+     * Returns the positions of the entities of the given types, all loaded types are extracted if types is null
+     */
+    public EntitySpans entities(String content, Collection<String> types) {
+        return entities(content, types, EntityLimits.NONE);
+    }
 
-            Span[] spans = finder.find(tokens);
-            double[] probs = finder.probs(spans);
+    public EntitySpans entities(String content, Collection<String> types, EntityLimits limits) {
+        return entitiesBatch(Collections.singletonList(content), types, limits).get(0);
+    }
 
-            for (int ni = 0; ni < spans.length; ni++) {
-                allTextAnnotations.add(new TextAnnotation(type, spans[ni], probs[ni]));
+    /**
+     * Finds the entities of already tokenized text, like the tokens of an analysis chain. The start and end of the
+     * entities are token indices instead of character offsets, the end is exclusive
+     */
+    public EntitySpans tokenEntities(String[] tokens, Collection<String> types) {
+        if (!modelsReady(types)) {
+            awaitModels(types);
+        }
+        warnFailures(types);
+        ModelSnapshot models = registry.snapshot();
+        if (types != null) {
+            models = models.select(types);
+        }
+        long startNanos = System.nanoTime();
+
+        EntitySpans entities = new EntitySpans(models.types());
+        if (tokens.length > 0) {
+            // every token spans one position, so the entities are converted to token indices
+            TokenOffsets tokenOffsets = new TokenOffsets(tokens.length);
+            for (int i = 0; i < tokens.length; i++) {
+                tokenOffsets.add(i, i + 1);
             }
+            stats.onTokenize(tokens.length, 0);
+            stats.onBatch(tokens.length);
+            extract(Collections.singletonList(new Piece(tokens, tokenOffsets, 0, 0, entities)), tokens.length, models,
+                    EntityLimits.NONE, startNanos, -1);
         }
+        stats.onExtract(1, 0, entities.size(), System.nanoTime() - startNanos);
+        return entities;
+    }
+
+    public List<EntitySpans> entitiesBatch(List<String> contents, Collection<String> types) {
+        return entitiesBatch(contents, types, EntityLimits.NONE);
+    }
 
-        if (allTextAnnotations.size() > 0 ) {
-            removeConflicts(allTextAnnotations);
+    /**
+     * Extracts the entities of several contents, like the values of a multi valued field or the documents of a bulk
+     * request, and returns them in the same order. The contents are processed model by model, so that the parameters
+     * of a model stay in the CPU caches while it runs over all of them. Only up to opennlp.batch.max_tokens tokens are
+     * held at once, the models run whenever this many are tokenized, so a batch of large contents does not keep the
+     * tokens of all of them. The limits of the entities are applied per content, the limits of the characters, tokens
+     * and time are shared by all contents
+     */
+    public List<EntitySpans> entitiesBatch(List<String> contents, Collection<String> types, EntityLimits limits) {
+        return entitiesBatch(contents, types, limits, null);
+    }
+
+    /**
+     * The source describes where the contents come from, like the document and field, and is logged by the slowlog
+     */
+    public List<EntitySpans> entitiesBatch(List<String> contents, Collection<String> types, EntityLimits limits, String source) {
+        long startNanos = System.nanoTime();
+        long maxTimeNanos = limits.maxTime() == null ? -1 : limits.maxTime().nanos();
+        if (!modelsReady(types)) {
+            if (maxTimeNanos < 0) {
+                awaitModels(types);
+            } else if (!awaitModels(types, TimeValue.timeValueNanos(Math.min(readyTimeout.nanos(), maxTimeNanos)))) {
+                // waiting any longer would exceed the time budget, so nothing is extracted
+                return notExtracted(contents.size(), startNanos);
+            }
+        }
+        warnFailures(types);
+        // all contents are processed with the same models, even if a model is reloaded meanwhile
+        ModelSnapshot models = registry.snapshot();
+        if (types != null) {
+            models = models.select(types);
         }
-        convertTextAnnotationsToNamedEntities(tokens, allTextAnnotations, namedEntities);
+        int maxChars = limits.maxChars() == null ? Integer.MAX_VALUE : limits.maxChars();
+        int maxTokens = limits.maxTokens() == null ? Integer.MAX_VALUE : limits.maxTokens();
 
-        return namedEntities;
+        List<EntitySpans> results = Lists.newArrayListWithCapacity(contents.size());
+        EntityCache.Key[] cacheKeys = new EntityCache.Key[contents.size()];
+        // the pieces of the contents which are not cached, a content is split into several pieces if it is chunked
+        List<Piece> pieces = Lists.newArrayList();
+        // the extracted pieces without their tokens, for the slowlog only
+        List<Piece> extractedPieces = slowLog.enabled() ? Lists.<Piece>newArrayList() : null;
+        int batchTokens = 0;
+        // the tokens of every piece are found in this buffer, only their offsets are copied
+        TokenOffsets tokenBuffer = new TokenOffsets(256);
+        TokenOffsets segmentBuffer = new TokenOffsets();
+        TokenOffsets sentenceBuffer = sentenceSplitter == null ? null : new TokenOffsets();
+        int tokenCount = 0;
+        long tokenizeNanos = 0;
+        for (int i = 0; i < contents.size(); i++) {
+            String content = contents.get(i);
+            if (entityCache != null) {
+                cacheKeys[i] = entityCache.key(content, models, limits);
+                EntitySpans cachedEntities = entityCache.get(cacheKeys[i]);
+                // a cached content takes its share of max_chars and max_tokens, so the limits do not depend on the cache.
+                // If it does not fit anymore it is extracted and limited as without the cache
+                if (cachedEntities != null && content.length() <= maxChars && cachedEntities.tokenCount() <= maxTokens - tokenCount) {
+                    maxChars -= content.length();
+                    maxTokens -= cachedEntities.tokenCount();
+                    // only the entities of the missed contents are stored below
+                    cacheKeys[i] = null;
+                    results.add(cachedEntities);
+                    continue;
+                }
+            }
+
+            EntitySpans entities = new EntitySpans(models.types());
+            results.add(entities);
+            if (content.length() > maxChars) {
+                content = truncate(content, maxChars);
+                entities.markLimited();
+            }
+            maxChars -= content.length();
+
+            segmentBuffer.clear();
+            segment(content, segmentBuffer, sentenceBuffer);
+            for (int s = 0; s < segmentBuffer.size(); s++) {
+                if (tokenCount >= maxTokens || expired(startNanos, maxTimeNanos)) {
+                    entities.markLimited();
+                    break;
+                }
+                if (batchTokens >= batchMaxTokens) {
+                    extractBatch(pieces, batchTokens, models, limits, startNanos, maxTimeNanos, extractedPieces);
+                    batchTokens = 0;
+                }
+                // the sentences of a content are one document for the models, chunks without sentences are not.
+                // The adaptive data is only kept within a batch, a content continued in the next batch starts anew
+                if (sentenceBuffer != null && !pieces.isEmpty() && pieces.get(pieces.size() - 1).entities == entities) {
+                    pieces.get(pieces.size() - 1).continued = true;
+                }
+                int start = segmentBuffer.start(s);
+                String segment = content.substring(start, segmentBuffer.end(s));
+                int added = addPiece(segment, start, i, entities, models, tokenBuffer, maxTokens - tokenCount, pieces);
+                entities.addTokens(added);
+                tokenizeNanos += pieces.get(pieces.size() - 1).tokenizeNanos;
+                tokenCount += added;
+                batchTokens += added;
+            }
+        }
+
+        if (!pieces.isEmpty()) {
+            extractBatch(pieces, batchTokens, models, limits, startNanos, maxTimeNanos, extractedPieces);
+        }
+        if (tokenCount > 0 || tokenizeNanos > 0) {
+            stats.onTokenize(tokenCount, tokenizeNanos);
+        }
+        if (extractedPieces != null && !extractedPieces.isEmpty()) {
+            logSlowContents(source, contents, models, extractedPieces);
+        }
+
+        int entityCount = 0;
+        int limitedCount = 0;
+        for (int i = 0; i < results.size(); i++) {
+            EntitySpans entities = results.get(i);
+            // cached entities are never limited, limited ones depend on the other contents and the time taken
+            if (entities.limited()) {
+                limitedCount++;
+                if (limits.skip()) {
+                    entities.clear();
+                }
+            } else if (cacheKeys[i] != null) {
+                entityCache.put(cacheKeys[i], entities);
+            }
+            entityCount += entities.size();
+        }
+        stats.onExtract(contents.size(), limitedCount, entityCount, System.nanoTime() - startNanos);
+        return results;
     }
 
-    public void convertTextAnnotationsToNamedEntities(String[] tokens, List<TextAnnotation> TextAnnotations, Map<String, Set<String>> namedEntities) {
-        for (TextAnnotation TextAnnotation : TextAnnotations) {
-            int start = TextAnnotation.getSpan().getStart();
-            int end = TextAnnotation.getSpan().getEnd();
-            String[] TextAnnotationData = Arrays.copyOfRange(tokens, start, end);
-            String content = Joiner.on(" ").join(TextAnnotationData);
+    /*
+     * Runs the models over the pieces tokenized so far and releases their tokens
+     */
+    private void extractBatch(List<Piece> pieces, int batchTokens, ModelSnapshot models, EntityLimits limits, long startNanos,
+                              long maxTimeNanos, List<Piece> extractedPieces) {
+        stats.onBatch(batchTokens);
+        extract(pieces, batchTokens, models, limits, startNanos, maxTimeNanos);
+        for (Piece piece : pieces) {
+            piece.release();
+        }
+        if (extractedPieces != null) {
+            extractedPieces.addAll(pieces);
+        }
+        pieces.clear();
+    }
 
-            String type = TextAnnotation.getType();
-            if (!namedEntities.containsKey(type)) {
-                Set<String> typeList = Sets.newHashSet();
-                namedEntities.put(type, typeList);
+    private List<EntitySpans> notExtracted(int count, long startNanos) {
+        List<EntitySpans> results = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            EntitySpans entities = new EntitySpans(Strings.EMPTY_ARRAY);
+            entities.markLimited();
+            results.add(entities);
+        }
+        stats.onExtract(count, count, 0, System.nanoTime() - startNanos);
+        return results;
+    }
+
+    /*
+     * Adds the offsets of the pieces of a content, which are its sentences if a sentence model is loaded, or the
+     * whole content. Sentences or contents longer than the chunk size are chunked
+     */
+    private void segment(String content, TokenOffsets segments, TokenOffsets sentences) {
+        if (sentences == null) {
+            chunk(content, 0, content.length(), segments);
+            return;
+        }
+        sentences.clear();
+        sentenceSplitter.split(content, sentences);
+        for (int i = 0; i < sentences.size(); i++) {
+            chunk(content, sentences.start(i), sentences.end(i), segments);
+        }
+    }
+
+    private void chunk(String content, int start, int end, TokenOffsets segments) {
+        if (chunkSize > 0 && end - start > chunkSize) {
+            ContentChunker chunker = new ContentChunker(content.substring(start, end), chunkSize);
+            while (chunker.next()) {
+                segments.add(start + chunker.start(), start + chunker.end());
             }
+        } else if (end > start) {
+            segments.add(start, end);
+        }
+    }
+
+    private static boolean expired(long startNanos, long maxTimeNanos) {
+        return maxTimeNanos >= 0 && System.nanoTime() - startNanos >= maxTimeNanos;
+    }
 
-            namedEntities.get(type).add(content);
+    /*
+     * Cuts the content after the last whitespace within the maximum length, so that no token is split. The
+     * offsets of the entities stay valid, because they always start at the beginning of the content
+     */
+    static String truncate(String content, int maxChars) {
+        for (int i = maxChars; i > 0; i--) {
+            if (Character.isWhitespace(content.charAt(i))) {
+                return content.substring(0, i);
+            }
         }
+        return content.substring(0, maxChars);
     }
 
-    /* Copied from https://github.com/tamingtext/book/blob/master/src/test/java/com/tamingtext/opennlp/NameFinderTest.java */
-    private void removeConflicts(List<TextAnnotation> allTextAnnotations) {
-        java.util.Collections.sort(allTextAnnotations);
-        List<TextAnnotation> stack = new ArrayList<TextAnnotation>();
-        stack.add(allTextAnnotations.get(0));
-        for (int ai = 1; ai < allTextAnnotations.size(); ai++) {
-            TextAnnotation curr = allTextAnnotations.get(ai);
-            boolean deleteCurr = false;
-            for (int ki = stack.size() - 1; ki >= 0; ki--) {
-                TextAnnotation prev = stack.get(ki);
-                if (prev.getSpan().equals(curr.getSpan())) {
-                    if (prev.getProb() > curr.getProb()) {
-                        deleteCurr = true;
-                        break;
-                    } else {
-                        allTextAnnotations.remove(stack.remove(ki));
-                        ai--;
+    /* tokenizes the content into a piece of at most maxTokens tokens and returns their number */
+    private int addPiece(String content, int offset, int contentIndex, EntitySpans entities, ModelSnapshot models,
+                         TokenOffsets tokenBuffer, int maxTokens, List<Piece> pieces) {
+        long startNanos = System.nanoTime();
+        tokenBuffer.clear();
+        tokenizer.tokenize(content, tokenBuffer);
+        if (tokenBuffer.size() > maxTokens) {
+            tokenBuffer.truncate(maxTokens);
+            entities.markLimited();
+        }
+        Piece piece = new Piece(content, tokenBuffer.copy(), offset, contentIndex, entities);
+        piece.tokenizeNanos = System.nanoTime() - startNanos;
+        if (slowLog.enabled()) {
+            piece.findNanos = new long[models.types().length];
+        }
+        pieces.add(piece);
+        return piece.tokens.length;
+    }
+
+    /*
+     * sums up the timings of the pieces of every content
+     */
+    private void logSlowContents(String source, List<String> contents, ModelSnapshot models, List<Piece> pieces) {
+        String[] types = models.types();
+        int i = 0;
+        while (i < pieces.size()) {
+            Piece first = pieces.get(i);
+            int tokens = 0;
+            long tokenizeNanos = 0;
+            long resolveNanos = 0;
+            long[] findNanos = new long[types.length];
+            for (; i < pieces.size() && pieces.get(i).entities == first.entities; i++) {
+                Piece piece = pieces.get(i);
+                tokens += piece.tokenCount;
+                tokenizeNanos += piece.tokenizeNanos;
+                resolveNanos += piece.resolveNanos;
+                for (int typeId = 0; typeId < types.length; typeId++) {
+                    findNanos[typeId] += piece.findNanos[typeId];
+                }
+            }
+            slowLog.log(source, contents.get(first.content).length(), tokens, tokenizeNanos, types, findNanos, resolveNanos);
+        }
+    }
+
+    /*
+     * A content, a sentence or a chunk of it, the entities are added with the offsets of the whole content.
+     * A continued piece is followed by the next sentence of the same content, so the adaptive data of the
+     * finders is kept for it. The timings per model are only kept if the slowlog is enabled
+     */
+    private static class Piece {
+        String[] tokens;
+        TokenOffsets tokenOffsets;
+        final int tokenCount;
+        final int offset;
+        final int content;
+        final EntitySpans entities;
+        boolean continued;
+        long tokenizeNanos;
+        long[] findNanos;
+        long resolveNanos;
+
+        Piece(String content, TokenOffsets tokenOffsets, int offset, int contentIndex, EntitySpans entities) {
+            this(tokenOffsets.toStrings(content), tokenOffsets, offset, contentIndex, entities);
+        }
+
+        Piece(String[] tokens, TokenOffsets tokenOffsets, int offset, int contentIndex, EntitySpans entities) {
+            this.tokenOffsets = tokenOffsets;
+            this.tokens = tokens;
+            this.tokenCount = tokens.length;
+            this.offset = offset;
+            this.content = contentIndex;
+            this.entities = entities;
+        }
+
+        /* once the entities are converted, the tokens are not needed anymore */
+        void release() {
+            tokens = null;
+            tokenOffsets = null;
+        }
+    }
+
+    /**
+     * Returns true if the models of these types and the tokenizer and sentence models are loaded or failed,
+     * all types are checked if types is null. With lazy loading, the loading of the types is started
+     */
+    public boolean ready(Collection<String> types) {
+        return modelsReady(types);
+    }
+
+    /*
+     * Only the models of the extracted types and the tokenizer and sentence models are waited for,
+     * so loading a model lazily for a new mapping does not hold up the documents of other fields
+     */
+    private boolean modelsReady(Collection<String> types) {
+        if (lazy) {
+            load(types == null ? modelTypes : types);
+        }
+        return registry.ready() || registry.ready(awaited(types));
+    }
+
+    /*
+     * A type whose model failed to load is not extracted, the documents are indexed without its entities
+     */
+    private void warnFailures(Collection<String> types) {
+        Map<String, Throwable> failures = registry.failures();
+        if (failures.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, Throwable> failure : failures.entrySet()) {
+            String type = failure.getKey();
+            if ((types == null || types.contains(type)) && warnedFailures.add(type)) {
+                logger.warn("Entities of type [{}] are not extracted, as its model failed to load: {}", type,
+                        failure.getValue().getMessage());
+            }
+        }
+    }
+
+    private Collection<String> awaited(Collection<String> types) {
+        if (types == null) {
+            return null;
+        }
+        Collection<String> awaited = Sets.newHashSet(types);
+        awaited.addAll(auxiliaryTypes);
+        return awaited;
+    }
+
+    private void awaitModels(Collection<String> types) {
+        if (!awaitModels(types, readyTimeout)) {
+            throw new OpenNlpModelsNotReadyException("OpenNLP models " + registry.loading() + " are still loading");
+        }
+    }
+
+    private boolean awaitModels(Collection<String> types, TimeValue timeout) {
+        try {
+            return timeout.nanos() > 0 && registry.awaitReady(awaited(types), timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public OpenNlpStats stats() {
+        return stats;
+    }
+
+    public OpenNlpSlowLog slowLog() {
+        return slowLog;
+    }
+
+    /**
+     * Returns the cache of extracted entities, or null if opennlp.cache.size is not set
+     */
+    public EntityCache cache() {
+        return entityCache;
+    }
+
+    private void extract(List<Piece> pieces, int tokenCount, ModelSnapshot models, EntityLimits limits, long startNanos,
+                         long maxTimeNanos) {
+        String[] types = models.types();
+        double[] minProbabilities = new double[types.length];
+        int[] maxEntities = new int[types.length];
+        for (int typeId = 0; typeId < types.length; typeId++) {
+            minProbabilities[typeId] = limits.minProbability(types[typeId]);
+            maxEntities[typeId] = limits.maxEntities(types[typeId]);
+        }
+        SpanConflictResolver[] resolvers = new SpanConflictResolver[pieces.size()];
+        for (int i = 0; i < resolvers.length; i++) {
+            resolvers[i] = new SpanConflictResolver();
+        }
+
+        ExecutorService executor = parallelModelsExecutor;
+        int completed = resolvers.length;
+        if (executor != null && tokenCount >= parallelModelsMinTokens && types.length > 1) {
+            completed = findParallel(executor, models, minProbabilities, pieces, resolvers, startNanos, maxTimeNanos);
+        } else if (maxTimeNanos >= 0) {
+            completed = findRoundRobin(models, minProbabilities, pieces, resolvers, startNanos, maxTimeNanos);
+        } else {
+            for (int typeId = 0; typeId < types.length; typeId++) {
+                find(models, typeId, minProbabilities[typeId], pieces, resolvers, startNanos, maxTimeNanos);
+            }
+        }
+        // a piece keeps its entities only if all models ran over it, so a timeout does not favour some types
+        for (int i = completed; i < resolvers.length; i++) {
+            resolvers[i].clear();
+            pieces.get(i).entities.markLimited();
+        }
+
+        long resolveStartNanos = System.nanoTime();
+        long pieceStartNanos = resolveStartNanos;
+        for (int i = 0; i < resolvers.length; i++) {
+            // the spans of a single model never overlap, so there is nothing to resolve
+            if (types.length > 1) {
+                removeConflicts(resolvers[i]);
+            }
+            Piece piece = pieces.get(i);
+            convertToEntitySpans(piece.tokenOffsets, piece.offset, resolvers[i], piece.entities);
+            // the entities of a chunked content are limited once all of its chunks are converted
+            if (limits.limitsEntities() && (i + 1 == pieces.size() || pieces.get(i + 1).entities != piece.entities)) {
+                piece.entities.limit(maxEntities);
+            }
+            if (piece.findNanos != null) {
+                long pieceEndNanos = System.nanoTime();
+                piece.resolveNanos = pieceEndNanos - pieceStartNanos;
+                pieceStartNanos = pieceEndNanos;
+            }
+        }
+        stats.onResolve(System.nanoTime() - resolveStartNanos);
+    }
+
+    /*
+     * Runs one model over all pieces and returns the number of pieces it ran over, spans below the minimum probability
+     * are dropped right away. Once the time budget is exceeded the remaining pieces are skipped
+     */
+    private int find(ModelSnapshot models, int typeId, double minProbability, List<Piece> pieces, SpanConflictResolver[] resolvers,
+                     long extractStartNanos, long maxTimeNanos) {
+        return find(models, typeId, minProbability, pieces, resolvers, extractStartNanos, maxTimeNanos, null);
+    }
+
+    /*
+     * The same, if progress is set the number of pieces the model ran over is published there after every piece
+     */
+    private int find(ModelSnapshot models, int typeId, double minProbability, List<Piece> pieces, SpanConflictResolver[] resolvers,
+                     long extractStartNanos, long maxTimeNanos, AtomicIntegerArray progress) {
+        NameFinderME finder = finderPool.acquire(models.types()[typeId], models.model(typeId), models.version());
+        for (int i = 0; i < resolvers.length; i++) {
+            if (expired(extractStartNanos, maxTimeNanos)) {
+                finderPool.release(finder);
+                return i;
+            }
+            findPiece(finder, models, typeId, minProbability, pieces.get(i), resolvers[i]);
+            if (progress != null) {
+                progress.set(typeId, i + 1);
+            }
+        }
+        return resolvers.length;
+    }
+
+    /*
+     * Runs all models over one piece after the other and returns the number of pieces all models ran over. The time
+     * budget is checked before every model, a running model cannot be interrupted, so the budget can be exceeded by
+     * one model run over one piece
+     */
+    private int findRoundRobin(ModelSnapshot models, double[] minProbabilities, List<Piece> pieces, SpanConflictResolver[] resolvers,
+                               long extractStartNanos, long maxTimeNanos) {
+        String[] types = models.types();
+        NameFinderME[] finders = new NameFinderME[types.length];
+        for (int typeId = 0; typeId < types.length; typeId++) {
+            finders[typeId] = finderPool.acquire(types[typeId], models.model(typeId), models.version());
+        }
+        for (int i = 0; i < resolvers.length; i++) {
+            for (int typeId = 0; typeId < types.length; typeId++) {
+                if (expired(extractStartNanos, maxTimeNanos)) {
+                    for (NameFinderME finder : finders) {
+                        finderPool.release(finder);
                     }
-                } else if (prev.getSpan().intersects(curr.getSpan())) {
-                    if (prev.getProb() > curr.getProb()) {
-                        deleteCurr = true;
-                        break;
+                    return i;
+                }
+                findPiece(finders[typeId], models, typeId, minProbabilities[typeId], pieces.get(i), resolvers[i]);
+            }
+        }
+        return resolvers.length;
+    }
+
+    private void findPiece(NameFinderME finder, ModelSnapshot models, int typeId, double minProbability, Piece piece,
+                           SpanConflictResolver resolver) {
+        long startNanos = System.nanoTime();
+        String[] tokens = piece.tokens;
+        Span[] spans;
+        double[] probs;
+        boolean succeeded = false;
+        try {
+            spans = finder.find(tokens);
+            probs = finder.probs(spans);
+            succeeded = true;
+        } finally {
+            // the adaptive data is cleared at the end of a document, or if the finder failed
+            if (!succeeded || !piece.continued) {
+                finderPool.release(finder);
+            }
+        }
+
+        int found = 0;
+        for (int ni = 0; ni < spans.length; ni++) {
+            if (probs[ni] < minProbability) {
+                continue;
+            }
+            resolver.add(spans[ni].getStart(), spans[ni].getEnd(), probs[ni], typeId);
+            found++;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        stats.onFind(models.types()[typeId], tokens.length, found, nanos);
+        if (piece.findNanos != null) {
+            // every model writes its own slot, the results of parallel models are awaited before reading them
+            piece.findNanos[typeId] = nanos;
+        }
+    }
+
+    /*
+     * Runs all but one model on the executor and the remaining one on the calling thread, which would
+     * otherwise just wait. If the executor queue is full, the model is run on the calling thread as well.
+     * Returns the number of pieces all models ran over, only their entities are merged
+     */
+    private int findParallel(ExecutorService executor, final ModelSnapshot models, final double[] minProbabilities,
+                              final List<Piece> pieces, SpanConflictResolver[] resolvers, final long startNanos,
+                              final long maxTimeNanos) {
+        int typeCount = models.types().length;
+        // every other model finds into its own resolvers, the first model runs on this thread into the given ones
+        final SpanConflictResolver[][] modelResolvers = new SpanConflictResolver[typeCount][];
+        // the pieces each model ran over, written after every piece, so that a model still running when max_time is reached
+        // keeps the pieces it completed
+        final AtomicIntegerArray modelCompleted = new AtomicIntegerArray(typeCount);
+        Map<Integer, Future<?>> futures = Maps.newLinkedHashMap();
+        for (int i = 1; i < typeCount; i++) {
+            final int typeId = i;
+            modelResolvers[typeId] = new SpanConflictResolver[pieces.size()];
+            for (int j = 0; j < pieces.size(); j++) {
+                modelResolvers[typeId][j] = new SpanConflictResolver();
+            }
+            try {
+                futures.put(typeId, executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        find(models, typeId, minProbabilities[typeId], pieces, modelResolvers[typeId], startNanos, maxTimeNanos,
+                                modelCompleted);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                modelCompleted.set(typeId, find(models, typeId, minProbabilities[typeId], pieces, modelResolvers[typeId],
+                        startNanos, maxTimeNanos));
+            }
+        }
+        int completed = find(models, 0, minProbabilities[0], pieces, resolvers, startNanos, maxTimeNanos);
+
+        try {
+            for (Map.Entry<Integer, Future<?>> entry : futures.entrySet()) {
+                int typeId = entry.getKey();
+                Future<?> future = entry.getValue();
+                // a model which did not start yet, or was dropped as the pool shut down, runs on this thread
+                if (future.cancel(false) || future.isCancelled()) {
+                    modelCompleted.set(typeId, find(models, typeId, minProbabilities[typeId], pieces, modelResolvers[typeId],
+                            startNanos, maxTimeNanos));
+                    continue;
+                }
+                try {
+                    if (maxTimeNanos < 0) {
+                        future.get();
                     } else {
-                        allTextAnnotations.remove(stack.remove(ki));
-                        ai--;
+                        long remainingNanos = maxTimeNanos - (System.nanoTime() - startNanos);
+                        future.get(Math.max(remainingNanos, 0), TimeUnit.NANOSECONDS);
                     }
-                } else if (prev.getSpan().contains(curr.getSpan())) {
-                    break;
-                } else {
-                    stack.remove(ki);
+                } catch (TimeoutException e) {
+                    // the model is still running over a piece, only the pieces it completed until now are used
+                } catch (CancellationException e) {
+                    modelCompleted.set(typeId, find(models, typeId, minProbabilities[typeId], pieces, modelResolvers[typeId],
+                            startNanos, maxTimeNanos));
                 }
             }
-            if (deleteCurr) {
-                allTextAnnotations.remove(ai);
-                ai--;
-                deleteCurr = false;
-            } else {
-                stack.add(curr);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ElasticSearchException("Interrupted while waiting for named entities", e);
+        } catch (ExecutionException e) {
+            throw new ElasticSearchException("Failed to find named entities", e.getCause());
+        }
+
+        for (int typeId = 1; typeId < typeCount; typeId++) {
+            completed = Math.min(completed, modelCompleted.get(typeId));
+        }
+        for (int typeId = 1; typeId < typeCount; typeId++) {
+            for (int i = 0; i < completed; i++) {
+                resolvers[i].addAll(modelResolvers[typeId][i]);
             }
         }
+        return completed;
+    }
+
+    /**
+     * Adds the resolved entities of a piece with their character offsets, which are relative to the piece plus its offset
+     */
+    void convertToEntitySpans(TokenOffsets tokenOffsets, int offset, SpanConflictResolver resolver, EntitySpans entities) {
+        entities.reserve(resolver.size());
+        for (int i = 0; i < resolver.size(); i++) {
+            int start = offset + tokenOffsets.start(resolver.start(i));
+            int end = offset + tokenOffsets.end(resolver.end(i) - 1);
+            entities.add(resolver.typeId(i), start, end, resolver.prob(i));
+        }
+    }
+
+    /*
+     * Keeps the most probable of overlapping entities, the algorithm was originally copied from
+     * https://github.com/tamingtext/book/blob/master/src/test/java/com/tamingtext/opennlp/NameFinderTest.java
+     * and is now a single sweep over the sorted candidates, see SpanConflictResolver
+     */
+    void removeConflicts(SpanConflictResolver resolver) {
+        resolver.resolve();
     }
 
 }
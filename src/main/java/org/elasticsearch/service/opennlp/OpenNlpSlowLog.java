@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs documents whose extraction takes longer than a threshold, like the indexing slowlog. There are thresholds per
+ * phase: extract is the whole extraction of a content, tokenize, find per model and resolve are its steps. Each phase
+ * has a warn, info, debug and trace threshold, all are disabled by default
+ * <pre>
+ * opennlp.slowlog.threshold.extract.warn: 1s
+ * opennlp.slowlog.threshold.find.info: 200ms
+ * </pre>
+ * The message is only created if a threshold is crossed
+ */
+public class OpenNlpSlowLog {
+
+    private static final String[] PHASES = { "extract", "tokenize", "find", "resolve" };
+    private static final String[] LEVELS = { "warn", "info", "debug", "trace" };
+    private static final int EXTRACT = 0;
+    private static final int TOKENIZE = 1;
+    private static final int FIND = 2;
+    private static final int RESOLVE = 3;
+    private static final int NONE = LEVELS.length;
+
+    private final ESLogger logger;
+    // in nanoseconds, indexed by phase and level, negative if disabled
+    private final long[][] thresholds = new long[PHASES.length][LEVELS.length];
+    private final boolean enabled;
+
+    public OpenNlpSlowLog(Settings settings) {
+        this.logger = Loggers.getLogger("opennlp.slowlog", settings);
+        boolean enabled = false;
+        for (int phase = 0; phase < PHASES.length; phase++) {
+            for (int level = 0; level < LEVELS.length; level++) {
+                String setting = "opennlp.slowlog.threshold." + PHASES[phase] + "." + LEVELS[level];
+                thresholds[phase][level] = settings.getAsTime(setting, TimeValue.timeValueNanos(-1)).nanos();
+                enabled |= thresholds[phase][level] >= 0;
+            }
+        }
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns false if no threshold is set, the timings of the single steps do not need to be kept then
+     */
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Logs the content at the most severe level any of its timings crosses, if any
+     */
+    void log(String source, int chars, int tokens, long tokenizeNanos, String[] types, long[] findNanos, long resolveNanos) {
+        long totalNanos = tokenizeNanos + resolveNanos;
+        int level = Math.min(level(TOKENIZE, tokenizeNanos), level(RESOLVE, resolveNanos));
+        for (long modelNanos : findNanos) {
+            totalNanos += modelNanos;
+            level = Math.min(level, level(FIND, modelNanos));
+        }
+        level = Math.min(level, level(EXTRACT, totalNanos));
+        if (level == NONE) {
+            return;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(source == null ? "[_na_]" : source).append(" ");
+        sb.append("took[").append(TimeValue.timeValueNanos(totalNanos)).append("], ");
+        sb.append("took_millis[").append(TimeUnit.NANOSECONDS.toMillis(totalNanos)).append("], ");
+        sb.append("tokenize[").append(TimeValue.timeValueNanos(tokenizeNanos)).append("], find[");
+        for (int typeId = 0; typeId < types.length; typeId++) {
+            if (typeId > 0) {
+                sb.append(", ");
+            }
+            sb.append(types[typeId]).append("[").append(TimeValue.timeValueNanos(findNanos[typeId])).append("]");
+        }
+        sb.append("], resolve[").append(TimeValue.timeValueNanos(resolveNanos)).append("], ");
+        sb.append("chars[").append(chars).append("], tokens[").append(tokens).append("]");
+
+        switch (level) {
+            case 0:
+                logger.warn("{}", sb);
+                break;
+            case 1:
+                logger.info("{}", sb);
+                break;
+            case 2:
+                logger.debug("{}", sb);
+                break;
+            default:
+                logger.trace("{}", sb);
+        }
+    }
+
+    private int level(int phase, long nanos) {
+        for (int level = 0; level < LEVELS.length; level++) {
+            if (thresholds[phase][level] >= 0 && nanos >= thresholds[phase][level]) {
+                return level;
+            }
+        }
+        return NONE;
+    }
+}
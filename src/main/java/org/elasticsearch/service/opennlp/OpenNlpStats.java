@@ -0,0 +1,304 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import opennlp.model.MaxentModel;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import org.elasticsearch.ExceptionsHelper;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+import org.elasticsearch.service.opennlp.models.HeapMaxentModel;
+import org.elasticsearch.service.opennlp.models.MappedMaxentModel;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the processed documents, tokens and entities and the time spent in the steps of the extraction, in total and
+ * per model. The counters are striped, so the indexing threads do not contend on them.
+ * A document is a single content passed to the service, a content which is split into chunks counts once in total,
+ * but once per chunk for the models
+ */
+public class OpenNlpStats implements ToXContent {
+
+    private final ModelRegistry registry;
+    private final EntityCache cache;
+
+    private final CounterMetric documents = new CounterMetric();
+    private final CounterMetric limited = new CounterMetric();
+    private final CounterMetric tokens = new CounterMetric();
+    private final CounterMetric batches = new CounterMetric();
+    private final AtomicLong maxBatchTokens = new AtomicLong();
+    private final CounterMetric entities = new CounterMetric();
+    private final CounterMetric tokenizeNanos = new CounterMetric();
+    private final CounterMetric resolveNanos = new CounterMetric();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final ConcurrentMap<String, ModelStats> models = ConcurrentCollections.newConcurrentMap();
+
+    public OpenNlpStats(ModelRegistry registry, EntityCache cache) {
+        this.registry = registry;
+        this.cache = cache;
+    }
+
+    void onTokenize(int count, long nanos) {
+        tokens.inc(count);
+        tokenizeNanos.inc(nanos);
+    }
+
+    /* called whenever the models run over the tokenized pieces, with the number of tokens held at once */
+    void onBatch(int tokenCount) {
+        batches.inc();
+        long max = maxBatchTokens.get();
+        while (tokenCount > max && !maxBatchTokens.compareAndSet(max, tokenCount)) {
+            max = maxBatchTokens.get();
+        }
+    }
+
+    void onFind(String type, int tokens, int entities, long nanos) {
+        ModelStats modelStats = modelStats(type);
+        modelStats.documents.inc();
+        modelStats.tokens.inc(tokens);
+        modelStats.entities.inc(entities);
+        modelStats.findNanos.inc(nanos);
+        modelStats.latency.record(nanos);
+    }
+
+    /*
+     * called before a model is published, so the stats requests do not walk the objects of the models
+     */
+    void onLoad(String type, TokenNameFinderModel model) {
+        modelStats(type).size(model);
+    }
+
+    void onResolve(long nanos) {
+        resolveNanos.inc(nanos);
+    }
+
+    /* called once per call of the service with the number of its contents */
+    void onExtract(int documentCount, int limitedCount, int entityCount, long nanos) {
+        documents.inc(documentCount);
+        limited.inc(limitedCount);
+        entities.inc(entityCount);
+        latency.record(nanos);
+    }
+
+    private ModelStats modelStats(String type) {
+        ModelStats modelStats = models.get(type);
+        if (modelStats == null) {
+            ModelStats previous = models.putIfAbsent(type, modelStats = new ModelStats());
+            if (previous != null) {
+                modelStats = previous;
+            }
+        }
+        return modelStats;
+    }
+
+    public long documents() {
+        return documents.count();
+    }
+
+    /**
+     * Returns the number of documents which were not extracted completely, because they exceeded a limit
+     */
+    public long limited() {
+        return limited.count();
+    }
+
+    public long tokens() {
+        return tokens.count();
+    }
+
+    public long entities() {
+        return entities.count();
+    }
+
+    /**
+     * Returns how often the models ran over a batch of tokenized pieces, a large call runs them several times
+     */
+    public long batches() {
+        return batches.count();
+    }
+
+    /**
+     * Returns the largest number of tokens held at once by a batch
+     */
+    public long maxBatchTokens() {
+        return maxBatchTokens.get();
+    }
+
+    /**
+     * Returns the stats of the model of this type, or null if it has not processed any document yet
+     */
+    public ModelStats model(String type) {
+        return models.get(type);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("opennlp");
+        builder.field("models_version", registry.snapshot().version());
+        // a model that failed to load only drops its type from the extraction, so it is reported here
+        builder.field("loading", registry.loading());
+        builder.startObject("failures");
+        for (Map.Entry<String, Throwable> entry : registry.failures().entrySet()) {
+            builder.field(entry.getKey(), ExceptionsHelper.detailedMessage(entry.getValue()));
+        }
+        builder.endObject();
+        builder.field("documents", documents.count());
+        builder.field("limited", limited.count());
+        builder.field("tokens", tokens.count());
+        builder.field("batches", batches.count());
+        builder.field("max_batch_tokens", maxBatchTokens.get());
+        builder.field("entities", entities.count());
+        builder.timeValueField(Fields.TOKENIZE_TIME_IN_MILLIS, Fields.TOKENIZE_TIME, TimeUnit.NANOSECONDS.toMillis(tokenizeNanos.count()));
+        builder.timeValueField(Fields.RESOLVE_TIME_IN_MILLIS, Fields.RESOLVE_TIME, TimeUnit.NANOSECONDS.toMillis(resolveNanos.count()));
+        latency.toXContent(builder);
+
+        if (cache != null) {
+            builder.startObject("cache");
+            builder.field("count", cache.count());
+            builder.field("hits", cache.hits());
+            builder.field("misses", cache.misses());
+            builder.field("evictions", cache.evictions());
+            builder.endObject();
+        }
+
+        builder.startObject("models");
+        for (Map.Entry<String, TokenNameFinderModel> entry : registry.snapshot().models().entrySet()) {
+            builder.startObject(entry.getKey());
+            modelStats(entry.getKey()).toXContent(builder);
+            builder.endObject();
+        }
+        builder.endObject();
+
+        builder.endObject();
+        return builder;
+    }
+
+    public static class ModelStats {
+
+        private final CounterMetric documents = new CounterMetric();
+        private final CounterMetric tokens = new CounterMetric();
+        private final CounterMetric entities = new CounterMetric();
+        private final CounterMetric findNanos = new CounterMetric();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        // the size is estimated once per loaded model, as walking the objects of a model takes a while
+        private volatile long heapSizeInBytes;
+        private volatile long mappedSizeInBytes;
+
+        public long documents() {
+            return documents.count();
+        }
+
+        public long tokens() {
+            return tokens.count();
+        }
+
+        public long entities() {
+            return entities.count();
+        }
+
+        public long heapSizeInBytes() {
+            return heapSizeInBytes;
+        }
+
+        public long mappedSizeInBytes() {
+            return mappedSizeInBytes;
+        }
+
+        private void size(TokenNameFinderModel model) {
+            MaxentModel maxentModel = model.getNameFinderModel();
+            if (maxentModel instanceof MappedMaxentModel) {
+                heapSizeInBytes = 0;
+                mappedSizeInBytes = ((MappedMaxentModel) maxentModel).sizeInBytes();
+            } else if (maxentModel instanceof HeapMaxentModel) {
+                heapSizeInBytes = ((HeapMaxentModel) maxentModel).sizeInBytes();
+                mappedSizeInBytes = 0;
+            } else {
+                heapSizeInBytes = RamUsageEstimator.sizeOf(maxentModel);
+                mappedSizeInBytes = 0;
+            }
+        }
+
+        private void toXContent(XContentBuilder builder) throws IOException {
+            builder.field("documents", documents.count());
+            builder.field("tokens", tokens.count());
+            builder.field("entities", entities.count());
+            builder.timeValueField(Fields.FIND_TIME_IN_MILLIS, Fields.FIND_TIME, TimeUnit.NANOSECONDS.toMillis(findNanos.count()));
+            latency.toXContent(builder);
+            builder.byteSizeField(Fields.HEAP_SIZE_IN_BYTES, Fields.HEAP_SIZE, heapSizeInBytes);
+            builder.byteSizeField(Fields.MAPPED_SIZE_IN_BYTES, Fields.MAPPED_SIZE, mappedSizeInBytes);
+        }
+    }
+
+    static final class Fields {
+        static final XContentBuilderString TOKENIZE_TIME = new XContentBuilderString("tokenize_time");
+        static final XContentBuilderString TOKENIZE_TIME_IN_MILLIS = new XContentBuilderString("tokenize_time_in_millis");
+        static final XContentBuilderString RESOLVE_TIME = new XContentBuilderString("resolve_time");
+        static final XContentBuilderString RESOLVE_TIME_IN_MILLIS = new XContentBuilderString("resolve_time_in_millis");
+        static final XContentBuilderString FIND_TIME = new XContentBuilderString("find_time");
+        static final XContentBuilderString FIND_TIME_IN_MILLIS = new XContentBuilderString("find_time_in_millis");
+        static final XContentBuilderString HEAP_SIZE = new XContentBuilderString("heap_size");
+        static final XContentBuilderString HEAP_SIZE_IN_BYTES = new XContentBuilderString("heap_size_in_bytes");
+        static final XContentBuilderString MAPPED_SIZE = new XContentBuilderString("mapped_size");
+        static final XContentBuilderString MAPPED_SIZE_IN_BYTES = new XContentBuilderString("mapped_size_in_bytes");
+    }
+
+    /*
+     * Counts the durations up to each bound, one bucket per order of magnitude
+     */
+    static class LatencyHistogram {
+
+        private static final String[] LABELS = { "100micros", "1ms", "10ms", "100ms", "1s" };
+        private static final long[] BOUNDS = {
+                TimeUnit.MICROSECONDS.toNanos(100), TimeUnit.MILLISECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(10),
+                TimeUnit.MILLISECONDS.toNanos(100), TimeUnit.SECONDS.toNanos(1)
+        };
+
+        private final CounterMetric[] buckets = new CounterMetric[BOUNDS.length + 1];
+
+        LatencyHistogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new CounterMetric();
+            }
+        }
+
+        void record(long nanos) {
+            int bucket = Arrays.binarySearch(BOUNDS, nanos);
+            buckets[bucket < 0 ? -bucket - 1 : bucket].inc();
+        }
+
+        void toXContent(XContentBuilder builder) throws IOException {
+            builder.startObject("latency");
+            for (int i = 0; i < BOUNDS.length; i++) {
+                builder.field(LABELS[i], buckets[i].count());
+            }
+            builder.field("more", buckets[BOUNDS.length].count());
+            builder.endObject();
+        }
+    }
+}
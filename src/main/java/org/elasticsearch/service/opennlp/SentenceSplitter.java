@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import opennlp.tools.sentdetect.SentenceDetectorME;
+import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.util.Span;
+import org.apache.lucene.util.CloseableThreadLocal;
+
+/**
+ * Splits content into sentences with a trained SentenceModel, like en-sent.bin, so that the name finders get the
+ * sentence level input they were trained on. A SentenceDetectorME is not thread safe, so there is one per thread
+ */
+public class SentenceSplitter {
+
+    private final SentenceModel model;
+    private final CloseableThreadLocal<SentenceDetectorME> detectors = new CloseableThreadLocal<SentenceDetectorME>() {
+        @Override
+        protected SentenceDetectorME initialValue() {
+            return new SentenceDetectorME(model);
+        }
+    };
+
+    public SentenceSplitter(SentenceModel model) {
+        this.model = model;
+    }
+
+    /**
+     * Adds the offsets of the sentences of this content in order, whitespace between them is not part of any sentence
+     */
+    public void split(String content, TokenOffsets sentences) {
+        for (Span span : detectors.get().sentPosDetect(content)) {
+            sentences.add(span.getStart(), span.getEnd());
+        }
+    }
+
+    public void close() {
+        detectors.close();
+    }
+}
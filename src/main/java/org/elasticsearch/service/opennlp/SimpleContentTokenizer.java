@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+/**
+ * Finds the same tokens as the SimpleTokenizer of opennlp, a token is a sequence of letters, of digits or of the same
+ * other character. The character classes of ASCII characters are looked up in a table instead of asking Character
+ */
+public class SimpleContentTokenizer implements ContentTokenizer {
+
+    public static final SimpleContentTokenizer INSTANCE = new SimpleContentTokenizer();
+
+    private static final byte WHITESPACE = 0;
+    private static final byte ALPHABETIC = 1;
+    private static final byte NUMERIC = 2;
+    private static final byte OTHER = 3;
+
+    private static final byte[] ASCII_TYPES = new byte[128];
+
+    static {
+        for (char c = 0; c < ASCII_TYPES.length; c++) {
+            ASCII_TYPES[c] = type(c);
+        }
+    }
+
+    @Override
+    public void tokenize(String content, TokenOffsets offsets) {
+        byte state = WHITESPACE;
+        char previous = 0;
+        int start = -1;
+        int length = content.length();
+        for (int i = 0; i < length; i++) {
+            char c = content.charAt(i);
+            byte type = c < ASCII_TYPES.length ? ASCII_TYPES[c] : type(c);
+            if (state == WHITESPACE) {
+                if (type != WHITESPACE) {
+                    start = i;
+                }
+            } else if (type != state || (type == OTHER && c != previous)) {
+                offsets.add(start, i);
+                if (type != WHITESPACE) {
+                    start = i;
+                }
+            }
+            state = type;
+            previous = c;
+        }
+        if (state != WHITESPACE) {
+            offsets.add(start, length);
+        }
+    }
+
+    private static byte type(char c) {
+        if (isWhitespace(c)) {
+            return WHITESPACE;
+        } else if (Character.isLetter(c)) {
+            return ALPHABETIC;
+        } else if (Character.isDigit(c)) {
+            return NUMERIC;
+        }
+        return OTHER;
+    }
+
+    /* the definition of opennlp, which includes the no-break spaces */
+    static boolean isWhitespace(char c) {
+        return Character.isWhitespace(c) || Character.getType(c) == Character.SPACE_SEPARATOR;
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.IntroSorter;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * Removes overlapping entity candidates of all models, keeping the more probable one.
+ * <p>
+ * Candidates are stored in primitive arrays, sorted by start ascending, end descending, type id and
+ * probability, and are then resolved in a single sweep. This yields the same entities as the
+ * list based algorithm from the Taming Text book, where the conflict stack never holds more than
+ * the last surviving candidate. Type ids need to be assigned in the order of the type names.
+ * <p>
+ * An instance is not thread safe, but can be reused after calling {@link #clear()}
+ */
+public class SpanConflictResolver {
+
+    private int[] starts;
+    private int[] ends;
+    private int[] typeIds;
+    private double[] probs;
+    private int size = 0;
+
+    private final Sorter sorter = new Sorter();
+
+    public SpanConflictResolver() {
+        this(16);
+    }
+
+    public SpanConflictResolver(int initialCapacity) {
+        starts = new int[initialCapacity];
+        ends = new int[initialCapacity];
+        typeIds = new int[initialCapacity];
+        probs = new double[initialCapacity];
+    }
+
+    public void add(int start, int end, double prob, int typeId) {
+        if (size == starts.length) {
+            int capacity = ArrayUtil.oversize(size + 1, RamUsageEstimator.NUM_BYTES_DOUBLE);
+            starts = grow(starts, capacity);
+            ends = grow(ends, capacity);
+            typeIds = grow(typeIds, capacity);
+            double[] newProbs = new double[capacity];
+            System.arraycopy(probs, 0, newProbs, 0, size);
+            probs = newProbs;
+        }
+        starts[size] = start;
+        ends[size] = end;
+        probs[size] = prob;
+        typeIds[size] = typeId;
+        size++;
+    }
+
+    public void addAll(SpanConflictResolver other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.starts[i], other.ends[i], other.probs[i], other.typeIds[i]);
+        }
+    }
+
+    /**
+     * Removes all conflicting candidates, the remaining candidates are available in sorted order
+     * through the accessors and their number is returned
+     */
+    public int resolve() {
+        if (size < 2) {
+            return size;
+        }
+
+        sorter.sort(0, size);
+
+        int survivor = 0;
+        int kept = 1;
+        for (int i = 1; i < size; i++) {
+            if (intersects(survivor, i)) {
+                if (probs[survivor] > probs[i]) {
+                    continue;
+                }
+                // the current candidate replaces the survivor in place
+                kept--;
+            }
+            move(i, kept);
+            survivor = kept;
+            kept++;
+        }
+        size = kept;
+        return size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int end(int i) {
+        return ends[i];
+    }
+
+    public double prob(int i) {
+        return probs[i];
+    }
+
+    public int typeId(int i) {
+        return typeIds[i];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /* same semantics as Span.intersects(), including containment */
+    private boolean intersects(int a, int b) {
+        int aStart = starts[a], aEnd = ends[a], bStart = starts[b], bEnd = ends[b];
+        return (aStart <= bStart && bEnd <= aEnd) || (bStart <= aStart && aEnd <= bEnd) ||
+                (aStart <= bStart && bStart < aEnd) || (bStart <= aStart && aStart < bEnd);
+    }
+
+    private void move(int from, int to) {
+        if (from != to) {
+            starts[to] = starts[from];
+            ends[to] = ends[from];
+            probs[to] = probs[from];
+            typeIds[to] = typeIds[from];
+        }
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] newArray = new int[capacity];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private class Sorter extends IntroSorter {
+
+        private int pivotStart;
+        private int pivotEnd;
+        private int pivotTypeId;
+        private double pivotProb;
+
+        @Override
+        protected int compare(int i, int j) {
+            return compare(starts[i], ends[i], typeIds[i], probs[i], j);
+        }
+
+        @Override
+        protected void swap(int i, int j) {
+            int start = starts[i];
+            starts[i] = starts[j];
+            starts[j] = start;
+            int end = ends[i];
+            ends[i] = ends[j];
+            ends[j] = end;
+            int typeId = typeIds[i];
+            typeIds[i] = typeIds[j];
+            typeIds[j] = typeId;
+            double prob = probs[i];
+            probs[i] = probs[j];
+            probs[j] = prob;
+        }
+
+        @Override
+        protected void setPivot(int i) {
+            pivotStart = starts[i];
+            pivotEnd = ends[i];
+            pivotTypeId = typeIds[i];
+            pivotProb = probs[i];
+        }
+
+        @Override
+        protected int comparePivot(int j) {
+            return compare(pivotStart, pivotEnd, pivotTypeId, pivotProb, j);
+        }
+
+        private int compare(int start, int end, int typeId, double prob, int j) {
+            if (start != starts[j]) {
+                return start < starts[j] ? -1 : 1;
+            }
+            if (end != ends[j]) {
+                return end > ends[j] ? -1 : 1;
+            }
+            if (typeId != typeIds[j]) {
+                return typeId < typeIds[j] ? -1 : 1;
+            }
+            return Double.compare(prob, probs[j]);
+        }
+    }
+}
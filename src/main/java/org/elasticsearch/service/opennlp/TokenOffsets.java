@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+import java.util.Arrays;
+
+/**
+ * The start and end offsets of tokens in a single int array, which grows as needed and can be reused by clearing it.
+ * Unlike a Span per token, this needs no object per token, the strings of the tokens are created once for all models
+ */
+public class TokenOffsets {
+
+    private int[] offsets;
+    private int size = 0;
+
+    public TokenOffsets() {
+        this(16);
+    }
+
+    public TokenOffsets(int capacity) {
+        this.offsets = new int[Math.max(1, capacity) * 2];
+    }
+
+    public void add(int start, int end) {
+        if (size * 2 == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[size * 2] = start;
+        offsets[size * 2 + 1] = end;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int start(int i) {
+        return offsets[i * 2];
+    }
+
+    public int end(int i) {
+        return offsets[i * 2 + 1];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Drops all but the first size tokens
+     */
+    public void truncate(int size) {
+        if (size < this.size) {
+            this.size = size;
+        }
+    }
+
+    /**
+     * Returns a copy with an array of exactly the size needed, to keep the offsets while this buffer is reused
+     */
+    public TokenOffsets copy() {
+        TokenOffsets copy = new TokenOffsets(size);
+        System.arraycopy(offsets, 0, copy.offsets, 0, size * 2);
+        copy.size = size;
+        return copy;
+    }
+
+    public String[] toStrings(String content) {
+        String[] tokens = new String[size];
+        for (int i = 0; i < size; i++) {
+            tokens[i] = content.substring(offsets[i * 2], offsets[i * 2 + 1]);
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp;
+
+/**
+ * Splits content at whitespace only, like the WhitespaceTokenizer of opennlp. Punctuation stays part of the tokens,
+ * so this only fits models trained on tokens split the same way
+ */
+public class WhitespaceContentTokenizer implements ContentTokenizer {
+
+    public static final WhitespaceContentTokenizer INSTANCE = new WhitespaceContentTokenizer();
+
+    @Override
+    public void tokenize(String content, TokenOffsets offsets) {
+        int start = -1;
+        int length = content.length();
+        for (int i = 0; i < length; i++) {
+            if (SimpleContentTokenizer.isWhitespace(content.charAt(i))) {
+                if (start >= 0) {
+                    offsets.add(start, i);
+                    start = -1;
+                }
+            } else if (start < 0) {
+                start = i;
+            }
+        }
+        if (start >= 0) {
+            offsets.add(start, length);
+        }
+    }
+}
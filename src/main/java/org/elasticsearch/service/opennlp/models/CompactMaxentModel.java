@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp.models;
+
+import opennlp.model.AbstractModel;
+import opennlp.model.Context;
+
+import java.util.Arrays;
+
+/**
+ * A maxent or perceptron model that looks up its predicates in an open addressing table keyed by the UTF-8
+ * encoded predicates and reads its parameters from flat arrays, instead of the boxed structures of opennlp.
+ * The subclasses differ in where the table and the parameters are stored.
+ * <p>
+ * Evaluation performs the same floating point operations in the same order as GISModel and PerceptronModel,
+ * so the probabilities are identical to the ones of the original model
+ */
+public abstract class CompactMaxentModel extends AbstractModel {
+
+    private final boolean perceptron;
+    private final int numOutcomes;
+    private final double correctionConstant;
+    private final double correctionParam;
+    private final double constantInverse;
+    private final double uniformLogPrior;
+
+    CompactMaxentModel(boolean perceptron, String[] outcomeNames, double correctionConstant, double correctionParam) {
+        super(new Context[0], new String[0], outcomeNames);
+        this.perceptron = perceptron;
+        this.modelType = perceptron ? ModelType.Perceptron : ModelType.Maxent;
+        this.numOutcomes = outcomeNames.length;
+        this.correctionConstant = correctionConstant;
+        this.correctionParam = correctionParam;
+        this.constantInverse = 1.0 / correctionConstant;
+        this.uniformLogPrior = Math.log(1.0 / numOutcomes);
+    }
+
+    @Override
+    public double[] eval(String[] context) {
+        return eval(context, new double[numOutcomes]);
+    }
+
+    @Override
+    public double[] eval(String[] context, float[] values) {
+        return eval(context, values, new double[numOutcomes]);
+    }
+
+    @Override
+    public double[] eval(String[] context, double[] outsums) {
+        return eval(context, null, outsums);
+    }
+
+    public double[] eval(String[] context, float[] values, double[] outsums) {
+        if (perceptron) {
+            return evalPerceptron(context, values, outsums);
+        }
+        return evalMaxent(context, values, outsums);
+    }
+
+    /* see GISModel.eval(), the uniform prior is applied first */
+    private double[] evalMaxent(String[] context, float[] values, double[] prior) {
+        Arrays.fill(prior, 0, numOutcomes, uniformLogPrior);
+        int[] numfeats = new int[numOutcomes];
+        double value = 1;
+        for (int ci = 0; ci < context.length; ci++) {
+            int id = predicate(context[ci]);
+            if (id >= 0) {
+                if (values != null) {
+                    value = values[ci];
+                }
+                addParameters(id, value, prior, numfeats);
+            }
+        }
+
+        double normal = 0.0;
+        for (int oid = 0; oid < numOutcomes; oid++) {
+            if (correctionParam != 0) {
+                prior[oid] = Math.exp(prior[oid] * constantInverse + ((1.0 - ((double) numfeats[oid] / correctionConstant)) * correctionParam));
+            } else {
+                prior[oid] = Math.exp(prior[oid] * constantInverse);
+            }
+            normal += prior[oid];
+        }
+        for (int oid = 0; oid < numOutcomes; oid++) {
+            prior[oid] /= normal;
+        }
+        return prior;
+    }
+
+    /* see PerceptronModel.eval(), always normalized */
+    private double[] evalPerceptron(String[] context, float[] values, double[] prior) {
+        Arrays.fill(prior, 0);
+        double value = 1;
+        for (int ci = 0; ci < context.length; ci++) {
+            int id = predicate(context[ci]);
+            if (id >= 0) {
+                if (values != null) {
+                    value = values[ci];
+                }
+                addParameters(id, value, prior, null);
+            }
+        }
+
+        double maxPrior = 1;
+        for (int oid = 0; oid < numOutcomes; oid++) {
+            if (maxPrior < Math.abs(prior[oid])) {
+                maxPrior = Math.abs(prior[oid]);
+            }
+        }
+        double normal = 0.0;
+        for (int oid = 0; oid < numOutcomes; oid++) {
+            prior[oid] = Math.exp(prior[oid] / maxPrior);
+            normal += prior[oid];
+        }
+        for (int oid = 0; oid < numOutcomes; oid++) {
+            prior[oid] /= normal;
+        }
+        return prior;
+    }
+
+    /**
+     * Returns the id of the predicate, or -1 if the model does not know it
+     */
+    abstract int predicate(String predicate);
+
+    /**
+     * Adds the parameters of the predicate times value to the outcomes they belong to, and counts the
+     * features per outcome if numfeats is not null
+     */
+    abstract void addParameters(int id, double value, double[] prior, int[] numfeats);
+
+    /**
+     * Returns the number of bytes used by the predicate index and the parameters
+     */
+    public abstract long sizeInBytes();
+
+    boolean perceptron() {
+        return perceptron;
+    }
+
+    double correctionConstant() {
+        return correctionConstant;
+    }
+
+    double correctionParam() {
+        return correctionParam;
+    }
+}
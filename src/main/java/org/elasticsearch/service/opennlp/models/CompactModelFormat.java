@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp.models;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The layout of the compact model files written by {@link CompactModelWriter}, and the predicate hashing and
+ * encoding shared with {@link HeapMaxentModel}.
+ * <p>
+ * After the header and the outcome names follow an open addressing table of predicate ids, one record per
+ * predicate, the flat parameters, the outcome ids of all distinct outcome patterns and the UTF-8 encoded
+ * predicates. Predicates are hashed with {@link String#hashCode()}, which every String caches, and compared
+ * byte by byte against their encoded form, so that a lookup allocates nothing
+ */
+final class CompactModelFormat {
+
+    static final int MAGIC = 0x4f4e4c50;
+    static final int VERSION = 1;
+
+    static final int TYPE_MAXENT = 0;
+    static final int TYPE_PERCEPTRON = 1;
+
+    // hash, key offset, key length, outcomes offset, parameters offset, parameter count
+    static final int RECORD_SIZE = 6 * 4;
+
+    private CompactModelFormat() {
+    }
+
+    static int tableSize(int numPredicates) {
+        // at most half full, so that probe sequences stay short
+        int size = 2;
+        while (size < numPredicates * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    static int slot(int hash, int mask) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Encodes like {@link #equals(ByteBuffer, int, int, String)} compares, unpaired surrogates are encoded
+     * as three bytes instead of being replaced, so that distinct predicates never get the same bytes
+     */
+    static byte[] encode(String s) {
+        byte[] bytes = new byte[encodedLength(s)];
+        int pos = 0;
+        for (int i = 0; i < s.length(); i++) {
+            int c = s.charAt(i);
+            if (c < 0x80) {
+                bytes[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[pos++] = (byte) (0xc0 | (c >> 6));
+                bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (isSurrogatePair(s, i)) {
+                int codePoint = Character.toCodePoint((char) c, s.charAt(++i));
+                bytes[pos++] = (byte) (0xf0 | (codePoint >> 18));
+                bytes[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                bytes[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                bytes[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else {
+                bytes[pos++] = (byte) (0xe0 | (c >> 12));
+                bytes[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns true if the bytes at offset are the encoded form of s, without encoding s
+     */
+    static boolean equals(ByteBuffer buffer, int offset, int length, String s) {
+        int pos = offset;
+        int end = offset + length;
+        for (int i = 0; i < s.length(); i++) {
+            int c = s.charAt(i);
+            if (c < 0x80) {
+                if (pos == end || buffer.get(pos++) != (byte) c) {
+                    return false;
+                }
+            } else if (c < 0x800) {
+                if (end - pos < 2 || buffer.get(pos++) != (byte) (0xc0 | (c >> 6)) ||
+                        buffer.get(pos++) != (byte) (0x80 | (c & 0x3f))) {
+                    return false;
+                }
+            } else if (isSurrogatePair(s, i)) {
+                int codePoint = Character.toCodePoint((char) c, s.charAt(++i));
+                if (end - pos < 4 || buffer.get(pos++) != (byte) (0xf0 | (codePoint >> 18)) ||
+                        buffer.get(pos++) != (byte) (0x80 | ((codePoint >> 12) & 0x3f)) ||
+                        buffer.get(pos++) != (byte) (0x80 | ((codePoint >> 6) & 0x3f)) ||
+                        buffer.get(pos++) != (byte) (0x80 | (codePoint & 0x3f))) {
+                    return false;
+                }
+            } else {
+                if (end - pos < 3 || buffer.get(pos++) != (byte) (0xe0 | (c >> 12)) ||
+                        buffer.get(pos++) != (byte) (0x80 | ((c >> 6) & 0x3f)) ||
+                        buffer.get(pos++) != (byte) (0x80 | (c & 0x3f))) {
+                    return false;
+                }
+            }
+        }
+        return pos == end;
+    }
+
+    /**
+     * Same as {@link #equals(ByteBuffer, int, int, String)} for the keys of a model on the heap
+     */
+    static boolean equals(byte[] bytes, int offset, int length, String s) {
+        int pos = offset;
+        int end = offset + length;
+        for (int i = 0; i < s.length(); i++) {
+            int c = s.charAt(i);
+            if (c < 0x80) {
+                if (pos == end || bytes[pos++] != (byte) c) {
+                    return false;
+                }
+            } else if (c < 0x800) {
+                if (end - pos < 2 || bytes[pos++] != (byte) (0xc0 | (c >> 6)) ||
+                        bytes[pos++] != (byte) (0x80 | (c & 0x3f))) {
+                    return false;
+                }
+            } else if (isSurrogatePair(s, i)) {
+                int codePoint = Character.toCodePoint((char) c, s.charAt(++i));
+                if (end - pos < 4 || bytes[pos++] != (byte) (0xf0 | (codePoint >> 18)) ||
+                        bytes[pos++] != (byte) (0x80 | ((codePoint >> 12) & 0x3f)) ||
+                        bytes[pos++] != (byte) (0x80 | ((codePoint >> 6) & 0x3f)) ||
+                        bytes[pos++] != (byte) (0x80 | (codePoint & 0x3f))) {
+                    return false;
+                }
+            } else {
+                if (end - pos < 3 || bytes[pos++] != (byte) (0xe0 | (c >> 12)) ||
+                        bytes[pos++] != (byte) (0x80 | ((c >> 6) & 0x3f)) ||
+                        bytes[pos++] != (byte) (0x80 | (c & 0x3f))) {
+                    return false;
+                }
+            }
+        }
+        return pos == end;
+    }
+
+    private static int encodedLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            int c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (isSurrogatePair(s, i)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static boolean isSurrogatePair(String s, int i) {
+        return Character.isHighSurrogate(s.charAt(i)) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1));
+    }
+}
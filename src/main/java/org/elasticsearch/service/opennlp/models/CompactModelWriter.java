@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp.models;
+
+import opennlp.model.AbstractModel;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+
+import java.io.*;
+
+import static org.elasticsearch.service.opennlp.models.CompactModelFormat.*;
+
+/**
+ * Converts a maxent or perceptron model into the compact format read by {@link MappedMaxentModel},
+ * the file contains the arrays of the {@link HeapMaxentModel} built from the model
+ */
+public class CompactModelWriter {
+
+    private CompactModelWriter() {
+    }
+
+    /**
+     * Writes the model to a temporary file next to the target, which is then renamed, so that concurrent
+     * readers and writers, possibly in other processes, never see a partially written file
+     */
+    public static void write(AbstractModel model, File file) throws IOException {
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile));
+            try {
+                write(model, out);
+            } finally {
+                out.close();
+            }
+            if (!tmpFile.renameTo(file) && !file.exists()) {
+                throw new IOException("Could not rename [" + tmpFile + "] to [" + file + "]");
+            }
+        } finally {
+            if (tmpFile.exists()) {
+                tmpFile.delete();
+            }
+        }
+    }
+
+    public static void write(AbstractModel model, OutputStream outputStream) throws IOException {
+        HeapMaxentModel compactModel;
+        try {
+            compactModel = HeapMaxentModel.build(model);
+        } catch (ElasticSearchIllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        int numOutcomes = compactModel.getNumOutcomes();
+        byte[][] encodedOutcomeNames = new byte[numOutcomes][];
+        int outcomeNamesLength = 0;
+        for (int i = 0; i < numOutcomes; i++) {
+            encodedOutcomeNames[i] = encode(compactModel.getOutcome(i));
+            outcomeNamesLength += 4 + encodedOutcomeNames[i].length;
+        }
+
+        int numPredicates = compactModel.numPredicates();
+        int tableOffset = 11 * 4 + 2 * 8 + outcomeNamesLength;
+        int recordsOffset = tableOffset + compactModel.table.length * 4;
+        int paramsOffset = recordsOffset + numPredicates * RECORD_SIZE;
+        int outcomesOffset = paramsOffset + compactModel.params.length * 8;
+        int keysOffset = outcomesOffset + compactModel.outcomes.length * 4;
+        if ((long) keysOffset + compactModel.keys.length > Integer.MAX_VALUE) {
+            throw new IOException("Model is too large for the compact format");
+        }
+
+        DataOutputStream out = new DataOutputStream(outputStream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(compactModel.perceptron() ? TYPE_PERCEPTRON : TYPE_MAXENT);
+        out.writeInt(numOutcomes);
+        out.writeInt(numPredicates);
+        out.writeInt(compactModel.table.length);
+        out.writeInt(tableOffset);
+        out.writeInt(recordsOffset);
+        out.writeInt(paramsOffset);
+        out.writeInt(outcomesOffset);
+        out.writeInt(keysOffset);
+        out.writeDouble(compactModel.correctionConstant());
+        out.writeDouble(compactModel.correctionParam());
+        for (byte[] outcomeName : encodedOutcomeNames) {
+            out.writeInt(outcomeName.length);
+            out.write(outcomeName);
+        }
+
+        for (int id : compactModel.table) {
+            out.writeInt(id);
+        }
+        for (int id = 0; id < numPredicates; id++) {
+            out.writeInt(compactModel.hashes[id]);
+            out.writeInt(compactModel.keyOffsets[id]);
+            out.writeInt(compactModel.keyOffsets[id + 1] - compactModel.keyOffsets[id]);
+            out.writeInt(compactModel.outcomeOffsets[id]);
+            out.writeInt(compactModel.paramOffsets[id]);
+            out.writeInt(compactModel.paramOffsets[id + 1] - compactModel.paramOffsets[id]);
+        }
+        for (double param : compactModel.params) {
+            out.writeDouble(param);
+        }
+        for (int outcome : compactModel.outcomes) {
+            out.writeInt(outcome);
+        }
+        out.write(compactModel.keys);
+        out.flush();
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp.models;
+
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.util.InvalidFormatException;
+import org.elasticsearch.ElasticSearchIllegalStateException;
+import org.elasticsearch.common.io.Streams;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A variant of {@link opennlp.tools.namefind.TokenNameFinderModel} whose maxent model is a {@link CompactMaxentModel},
+ * either built on the heap or evaluated from a memory mapped compact file. The compact file is named by the SHA-1
+ * hash of the model file and the version of the compact format, so it is only written the first time a model is loaded,
+ * processes loading the same model share one file, and a new format version writes a new file instead of failing on the old one.
+ * <p>
+ * The maxent entry of a model file is always read by the base serializers of opennlp, so the model is parsed into
+ * the opennlp structures once while loading and replaced by the compact model afterwards
+ */
+public class CompactTokenNameFinderModel extends TokenNameFinderModel {
+
+    private static final String MAXENT_MODEL_ENTRY_NAME = "nameFinder.model";
+
+    private CompactTokenNameFinderModel(InputStream in) throws IOException, InvalidFormatException {
+        super(in);
+    }
+
+    /**
+     * Loads the model file and builds the compact model on the heap
+     */
+    public static CompactTokenNameFinderModel load(File modelFile) throws IOException {
+        InputStream in = new FileInputStream(modelFile);
+        CompactTokenNameFinderModel model;
+        try {
+            model = new CompactTokenNameFinderModel(in);
+        } finally {
+            in.close();
+        }
+        model.artifactMap.put(MAXENT_MODEL_ENTRY_NAME, HeapMaxentModel.build(model.getNameFinderModel()));
+        return model;
+    }
+
+    /**
+     * Loads the model file, its maxent model is converted into the given directory the first time and mapped from there
+     */
+    public static CompactTokenNameFinderModel load(File modelFile, File compactDirectory) throws IOException {
+        byte[] bytes = Streams.copyToByteArray(modelFile);
+        CompactTokenNameFinderModel model = new CompactTokenNameFinderModel(new ByteArrayInputStream(bytes));
+
+        File compactFile = new File(compactDirectory, sha1(bytes) + "-v" + CompactModelFormat.VERSION + ".model");
+        if (!compactFile.exists()) {
+            if (!compactDirectory.exists() && !compactDirectory.mkdirs() && !compactDirectory.exists()) {
+                throw new IOException("Could not create directory [" + compactDirectory + "]");
+            }
+            CompactModelWriter.write(model.getNameFinderModel(), compactFile);
+        }
+        model.artifactMap.put(MAXENT_MODEL_ENTRY_NAME, MappedMaxentModel.map(compactFile));
+        return model;
+    }
+
+    private static String sha1(byte[] bytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new ElasticSearchIllegalStateException("SHA-1 is not available", e);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest(bytes)) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp.models;
+
+import opennlp.model.AbstractModel;
+import opennlp.model.Context;
+import opennlp.model.IndexHashTable;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.elasticsearch.service.opennlp.models.CompactModelFormat.*;
+
+/**
+ * A {@link CompactMaxentModel} on the heap. All predicates are stored once as UTF-8 in a single byte array,
+ * the parameters of all predicates in a single double array, and predicates sharing the same outcomes, which
+ * is the common case, share one copy of the outcome ids. Besides the outcome names there are eight arrays,
+ * instead of a String, a Context and two arrays per predicate
+ */
+public class HeapMaxentModel extends CompactMaxentModel {
+
+    final int[] table;
+    final int[] hashes;
+    final byte[] keys;
+    // predicate id to the start of its key, the last entry is the end of the last key
+    final int[] keyOffsets;
+    // predicate id to the start of its parameters, the last entry is the end of the last parameters
+    final int[] paramOffsets;
+    final double[] params;
+    // predicate id to the start of its outcome ids, which are as many as its parameters
+    final int[] outcomeOffsets;
+    final int[] outcomes;
+    private final int mask;
+
+    private HeapMaxentModel(boolean perceptron, String[] outcomeNames, double correctionConstant, double correctionParam,
+                            int[] table, int[] hashes, byte[] keys, int[] keyOffsets, int[] paramOffsets, double[] params,
+                            int[] outcomeOffsets, int[] outcomes) {
+        super(perceptron, outcomeNames, correctionConstant, correctionParam);
+        this.table = table;
+        this.hashes = hashes;
+        this.keys = keys;
+        this.keyOffsets = keyOffsets;
+        this.paramOffsets = paramOffsets;
+        this.params = params;
+        this.outcomeOffsets = outcomeOffsets;
+        this.outcomes = outcomes;
+        this.mask = table.length - 1;
+    }
+
+    /**
+     * Builds the index and copies the parameters of a GISModel or PerceptronModel, which is not needed anymore afterwards
+     */
+    @SuppressWarnings("unchecked")
+    public static HeapMaxentModel build(AbstractModel model) {
+        if (model instanceof HeapMaxentModel) {
+            return (HeapMaxentModel) model;
+        }
+        boolean perceptron;
+        if (model.getModelType() == AbstractModel.ModelType.Maxent) {
+            perceptron = false;
+        } else if (model.getModelType() == AbstractModel.ModelType.Perceptron) {
+            perceptron = true;
+        } else {
+            throw new ElasticSearchIllegalArgumentException("Unsupported model type [" + model.getModelType() + "]");
+        }
+
+        Object[] data = model.getDataStructures();
+        Context[] contexts = (Context[]) data[0];
+        IndexHashTable<String> pmap = (IndexHashTable<String>) data[1];
+        String[] outcomeNames = (String[]) data[2];
+        double correctionConstant = ((Integer) data[3]).doubleValue();
+        double correctionParam = (Double) data[4];
+        String[] predicates = pmap.toArray(new String[pmap.size()]);
+
+        int[] hashes = new int[predicates.length];
+        byte[][] encodedKeys = new byte[predicates.length][];
+        int[] keyOffsets = new int[predicates.length + 1];
+        int[] paramOffsets = new int[predicates.length + 1];
+        int[] outcomeOffsets = new int[predicates.length];
+        Map<OutcomePattern, Integer> patterns = Maps.newLinkedHashMap();
+        int outcomesCount = 0;
+        for (int id = 0; id < predicates.length; id++) {
+            hashes[id] = predicates[id].hashCode();
+            encodedKeys[id] = encode(predicates[id]);
+            keyOffsets[id + 1] = keyOffsets[id] + encodedKeys[id].length;
+            paramOffsets[id + 1] = paramOffsets[id] + contexts[id].getParameters().length;
+
+            OutcomePattern pattern = new OutcomePattern(contexts[id].getOutcomes());
+            Integer offset = patterns.get(pattern);
+            if (offset == null) {
+                offset = outcomesCount;
+                patterns.put(pattern, offset);
+                outcomesCount += pattern.outcomes.length;
+            }
+            outcomeOffsets[id] = offset;
+        }
+
+        byte[] keys = new byte[keyOffsets[predicates.length]];
+        double[] params = new double[paramOffsets[predicates.length]];
+        for (int id = 0; id < predicates.length; id++) {
+            System.arraycopy(encodedKeys[id], 0, keys, keyOffsets[id], encodedKeys[id].length);
+            double[] parameters = contexts[id].getParameters();
+            System.arraycopy(parameters, 0, params, paramOffsets[id], parameters.length);
+        }
+        int[] outcomes = new int[outcomesCount];
+        for (Map.Entry<OutcomePattern, Integer> entry : patterns.entrySet()) {
+            int[] pattern = entry.getKey().outcomes;
+            System.arraycopy(pattern, 0, outcomes, entry.getValue(), pattern.length);
+        }
+
+        int[] table = new int[tableSize(predicates.length)];
+        int mask = table.length - 1;
+        for (int id = 0; id < predicates.length; id++) {
+            int slot = slot(hashes[id], mask);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+
+        return new HeapMaxentModel(perceptron, outcomeNames, correctionConstant, correctionParam,
+                table, hashes, keys, keyOffsets, paramOffsets, params, outcomeOffsets, outcomes);
+    }
+
+    @Override
+    int predicate(String predicate) {
+        int hash = predicate.hashCode();
+        int slot = slot(hash, mask);
+        while (true) {
+            int id = table[slot] - 1;
+            if (id < 0) {
+                return -1;
+            }
+            if (hashes[id] == hash && CompactModelFormat.equals(keys, keyOffsets[id], keyOffsets[id + 1] - keyOffsets[id], predicate)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    @Override
+    void addParameters(int id, double value, double[] prior, int[] numfeats) {
+        int paramOffset = paramOffsets[id];
+        int count = paramOffsets[id + 1] - paramOffset;
+        int outcomeOffset = outcomeOffsets[id];
+        for (int ai = 0; ai < count; ai++) {
+            int oid = outcomes[outcomeOffset + ai];
+            if (numfeats != null) {
+                numfeats[oid]++;
+            }
+            prior[oid] += params[paramOffset + ai] * value;
+        }
+    }
+
+    int numPredicates() {
+        return hashes.length;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return 4L * (table.length + hashes.length + keyOffsets.length + paramOffsets.length + outcomeOffsets.length + outcomes.length)
+                + keys.length + 8L * params.length;
+    }
+
+    private static class OutcomePattern {
+        private final int[] outcomes;
+        private final int hashCode;
+
+        OutcomePattern(int[] outcomes) {
+            this.outcomes = outcomes;
+            this.hashCode = Arrays.hashCode(outcomes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof OutcomePattern && Arrays.equals(outcomes, ((OutcomePattern) o).outcomes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
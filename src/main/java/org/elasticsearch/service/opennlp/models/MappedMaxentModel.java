@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.service.opennlp.models;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static org.elasticsearch.service.opennlp.models.CompactModelFormat.*;
+
+/**
+ * A {@link CompactMaxentModel} evaluated directly on a memory mapped file written by {@link CompactModelWriter}.
+ * Only the outcome names are kept on the heap, the parameters and the predicate index stay in the page cache,
+ * which is shared by all processes mapping the same file
+ */
+public class MappedMaxentModel extends CompactMaxentModel {
+
+    private final ByteBuffer buffer;
+    private final int mask;
+    private final int tableOffset;
+    private final int recordsOffset;
+    private final int paramsOffset;
+    private final int outcomesOffset;
+    private final int keysOffset;
+
+    private MappedMaxentModel(ByteBuffer buffer, String[] outcomeNames) {
+        super(buffer.getInt(8) == TYPE_PERCEPTRON, outcomeNames, buffer.getDouble(44), buffer.getDouble(52));
+        this.buffer = buffer;
+        this.mask = buffer.getInt(20) - 1;
+        this.tableOffset = buffer.getInt(24);
+        this.recordsOffset = buffer.getInt(28);
+        this.paramsOffset = buffer.getInt(32);
+        this.outcomesOffset = buffer.getInt(36);
+        this.keysOffset = buffer.getInt(40);
+    }
+
+    /**
+     * Maps the file read only, the mapping stays valid after the file channel is closed
+     */
+    public static MappedMaxentModel map(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            ByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+            return wrap(buffer);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    public static MappedMaxentModel wrap(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < 60 || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a compact model");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported compact model version [" + buffer.getInt(4) + "]");
+        }
+
+        String[] outcomeNames = new String[buffer.getInt(12)];
+        int offset = 60;
+        for (int i = 0; i < outcomeNames.length; i++) {
+            int length = buffer.getInt(offset);
+            byte[] bytes = new byte[length];
+            for (int j = 0; j < length; j++) {
+                bytes[j] = buffer.get(offset + 4 + j);
+            }
+            outcomeNames[i] = new String(bytes, "UTF-8");
+            offset += 4 + length;
+        }
+        return new MappedMaxentModel(buffer, outcomeNames);
+    }
+
+    @Override
+    void addParameters(int id, double value, double[] prior, int[] numfeats) {
+        int record = recordsOffset + id * RECORD_SIZE;
+        int outcomes = outcomesOffset + buffer.getInt(record + 12) * 4;
+        int params = paramsOffset + buffer.getInt(record + 16) * 8;
+        int count = buffer.getInt(record + 20);
+        for (int ai = 0; ai < count; ai++) {
+            int oid = buffer.getInt(outcomes + ai * 4);
+            if (numfeats != null) {
+                numfeats[oid]++;
+            }
+            prior[oid] += buffer.getDouble(params + ai * 8) * value;
+        }
+    }
+
+    @Override
+    int predicate(String predicate) {
+        int hash = predicate.hashCode();
+        int slot = slot(hash, mask);
+        while (true) {
+            int id = buffer.getInt(tableOffset + slot * 4) - 1;
+            if (id < 0) {
+                return -1;
+            }
+            int record = recordsOffset + id * RECORD_SIZE;
+            if (buffer.getInt(record) == hash &&
+                    CompactModelFormat.equals(buffer, keysOffset + buffer.getInt(record + 4), buffer.getInt(record + 8), predicate)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Returns the size of the mapped file
+     */
+    @Override
+    public long sizeInBytes() {
+        return buffer.capacity();
+    }
+}
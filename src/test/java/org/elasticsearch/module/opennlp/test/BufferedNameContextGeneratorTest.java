@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.module.opennlp.test;
+
+import opennlp.model.MaxentModel;
+import opennlp.tools.namefind.NameContextGenerator;
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.tokenize.SimpleTokenizer;
+import opennlp.tools.util.Span;
+import org.elasticsearch.service.opennlp.BufferedNameContextGenerator;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+public class BufferedNameContextGeneratorTest {
+
+    private static final String[] TOKENS = { "Kobe", "Bryant", "KOBE", "munich", "M\u00fcnchen", "\u0130stanbul", "1999",
+            "12", "3.5", "1,000", "12/24", "A-10", "abc123", "I.B.M.", ",", ".", "\"", "\u6771\u4eac", "\ud83d\ude00", "e", "x" };
+    private static final String[] OUTCOMES = { NameFinderME.OTHER, "start", "cont" };
+
+    @Test
+    public void testThatFeaturesAreIdentical() throws Exception {
+        TokenNameFinderModel model = ModelTestHelper.train("name");
+        NameContextGenerator expectedGenerator = new ContextNameFinder(model).contextGenerator();
+        NameContextGenerator generator = new ContextNameFinder(model.getNameFinderModel(), new BufferedNameContextGenerator()).contextGenerator();
+
+        Random random = new Random(0);
+        for (int iteration = 0; iteration < 200; iteration++) {
+            String[] tokens = new String[1 + random.nextInt(iteration % 2 == 0 ? 20 : 150)];
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = TOKENS[random.nextInt(TOKENS.length)];
+            }
+            // like the beam search, every token is visited with several different previous outcomes, and
+            // sometimes the same token array is processed again with the adaptive data of the previous run
+            int runs = 1 + random.nextInt(2);
+            for (int run = 0; run < runs; run++) {
+                String[] outcomes = new String[tokens.length];
+                for (int index = 0; index < tokens.length; index++) {
+                    for (int beam = 0; beam < 3; beam++) {
+                        String[] preds = new String[index];
+                        for (int i = 0; i < index; i++) {
+                            preds[i] = OUTCOMES[random.nextInt(OUTCOMES.length)];
+                        }
+                        String[] expected = expectedGenerator.getContext(index, tokens, preds, null);
+                        assertThat(Arrays.toString(tokens) + " " + index, generator.getContext(index, tokens, preds, null), is(equalTo(expected)));
+                    }
+                    outcomes[index] = OUTCOMES[random.nextInt(OUTCOMES.length)];
+                }
+                expectedGenerator.updateAdaptiveData(tokens, outcomes);
+                generator.updateAdaptiveData(tokens, outcomes);
+            }
+            if (random.nextBoolean()) {
+                expectedGenerator.clearAdaptiveData();
+                generator.clearAdaptiveData();
+            }
+        }
+    }
+
+    @Test
+    public void testThatFoundNamesAreIdentical() throws Exception {
+        for (String type : ModelTestHelper.TYPES) {
+            TokenNameFinderModel model = ModelTestHelper.train(type);
+            NameFinderME expectedFinder = new NameFinderME(model);
+            NameFinderME finder = new NameFinderME(model.getNameFinderModel(), new BufferedNameContextGenerator(), NameFinderME.DEFAULT_BEAM_SIZE);
+
+            Random random = new Random(type.hashCode());
+            for (int i = 0; i < 20; i++) {
+                String[] tokens = SimpleTokenizer.INSTANCE.tokenize(ModelTestHelper.document(random, 10 + random.nextInt(300), 4));
+                Span[] expected = expectedFinder.find(tokens);
+                Span[] spans = finder.find(tokens);
+                assertThat(spans, is(equalTo(expected)));
+                assertThat(finder.probs(spans), is(equalTo(expectedFinder.probs(expected))));
+                expectedFinder.clearAdaptiveData();
+                finder.clearAdaptiveData();
+            }
+        }
+    }
+
+    /* exposes the context generator of a name finder, including the generator it adds for the additional context */
+    private static class ContextNameFinder extends NameFinderME {
+        ContextNameFinder(TokenNameFinderModel model) {
+            super(model);
+        }
+
+        ContextNameFinder(MaxentModel model, NameContextGenerator contextGenerator) {
+            super(model, contextGenerator, DEFAULT_BEAM_SIZE);
+        }
+
+        NameContextGenerator contextGenerator() {
+            return contextGenerator;
+        }
+    }
+}
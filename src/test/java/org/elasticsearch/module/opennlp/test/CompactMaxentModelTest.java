@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.module.opennlp.test;
+
+import opennlp.maxent.GISModel;
+import opennlp.model.AbstractModel;
+import opennlp.model.Context;
+import opennlp.model.IndexHashTable;
+import opennlp.model.TrainUtil;
+import opennlp.tools.util.TrainingParameters;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.service.opennlp.OpenNlpService;
+import org.elasticsearch.service.opennlp.models.CompactMaxentModel;
+import org.elasticsearch.service.opennlp.models.CompactModelWriter;
+import org.elasticsearch.service.opennlp.models.HeapMaxentModel;
+import org.elasticsearch.service.opennlp.models.MappedMaxentModel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class CompactMaxentModelTest {
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = new File(System.getProperty("java.io.tmpdir"), "opennlp-compact-test-" + System.nanoTime());
+        assertThat(directory.mkdirs(), is(true));
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testThatMaxentProbabilitiesAreIdentical() throws Exception {
+        for (String type : ModelTestHelper.TYPES) {
+            assertIdenticalProbabilities(ModelTestHelper.train(type).getNameFinderModel(), type);
+        }
+    }
+
+    @Test
+    public void testThatPerceptronProbabilitiesAreIdentical() throws Exception {
+        TrainingParameters parameters = TrainingParameters.defaultParams();
+        parameters.put(TrainingParameters.ALGORITHM_PARAM, TrainUtil.PERCEPTRON_VALUE);
+        parameters.put(TrainingParameters.ITERATIONS_PARAM, "20");
+        parameters.put(TrainingParameters.CUTOFF_PARAM, "1");
+        AbstractModel model = ModelTestHelper.train("location", parameters).getNameFinderModel();
+        assertThat(model.getModelType(), is(AbstractModel.ModelType.Perceptron));
+        assertIdenticalProbabilities(model, "perceptron");
+    }
+
+    @Test
+    public void testThatNonAsciiPredicatesAreFound() throws Exception {
+        String[] predicates = { "w=m\u00fcnchen", "w=\u6771\u4eac", "w=\ud83d\ude00", "w=\ud83d", "w=?", "w=\ude00x", "" };
+        Context[] params = new Context[predicates.length];
+        for (int i = 0; i < predicates.length; i++) {
+            params[i] = new Context(new int[] { i % 2 }, new double[] { 0.5 + i });
+        }
+        GISModel model = new GISModel(params, predicates, new String[] { "yes", "no" }, 1, 0.0);
+
+        for (CompactMaxentModel compactModel : new CompactMaxentModel[] { HeapMaxentModel.build(model), write(model, "unicode") }) {
+            for (String predicate : predicates) {
+                assertThat(predicate, compactModel.eval(new String[] { predicate }), is(equalTo(model.eval(new String[] { predicate }))));
+            }
+            assertThat(compactModel.eval(new String[] { "w=m\u00fcnche" }), is(equalTo(model.eval(new String[] { "w=m\u00fcnche" }))));
+            assertThat(compactModel.getOutcome(1), is("no"));
+        }
+    }
+
+    @Test
+    public void testThatCompactStoragesFindSameEntities() throws Exception {
+        OpenNlpService opennlpService = new OpenNlpService(ModelTestHelper.settings().put("opennlp.models.storage", "opennlp").build());
+        OpenNlpService heapService = new OpenNlpService(ModelTestHelper.settings().build());
+        ImmutableSettings.Builder mappedSettings = ModelTestHelper.settings()
+                .put("opennlp.models.storage", "mapped")
+                .put("opennlp.models.mapped.directory", directory.getAbsolutePath());
+        OpenNlpService mappedService = new OpenNlpService(mappedSettings.build());
+        try {
+            opennlpService.start();
+            heapService.start();
+            mappedService.start();
+            assertThat(opennlpService.models().model("name").getNameFinderModel(), is(instanceOf(GISModel.class)));
+            assertThat(heapService.models().model("name").getNameFinderModel(), is(instanceOf(HeapMaxentModel.class)));
+            assertThat(mappedService.models().model("name").getNameFinderModel(), is(instanceOf(MappedMaxentModel.class)));
+            assertThat(directory.list().length, is(ModelTestHelper.TYPES.length));
+            // a new format version does not find the files of the old one
+            for (String name : directory.list()) {
+                assertThat(name, name.matches("[0-9a-f]{40}-v[0-9]+\\.model"), is(true));
+            }
+
+            Random random = new Random(11);
+            for (int i = 0; i < 20; i++) {
+                String document = ModelTestHelper.document(random, 20 + random.nextInt(200), 4);
+                Map<String, Set<String>> expected = opennlpService.tokenize(document);
+                assertThat(heapService.tokenize(document), is(equalTo(expected)));
+                assertThat(mappedService.tokenize(document), is(equalTo(expected)));
+            }
+
+            // the compact files are reused by other nodes and restarts
+            long lastModified = directory.listFiles()[0].lastModified();
+            mappedService.reload("name");
+            assertThat(directory.list().length, is(ModelTestHelper.TYPES.length));
+            assertThat(directory.listFiles()[0].lastModified(), is(lastModified));
+        } finally {
+            opennlpService.close();
+            heapService.close();
+            mappedService.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void assertIdenticalProbabilities(AbstractModel model, String name) throws IOException {
+        HeapMaxentModel heapModel = HeapMaxentModel.build(model);
+        MappedMaxentModel mappedModel = write(model, name);
+        assertThat(heapModel.getModelType(), is(model.getModelType()));
+        assertThat(mappedModel.getModelType(), is(model.getModelType()));
+        assertThat(mappedModel.sizeInBytes(), is(greaterThan(heapModel.sizeInBytes())));
+        for (CompactMaxentModel compactModel : new CompactMaxentModel[] { heapModel, mappedModel }) {
+            assertThat(compactModel.getNumOutcomes(), is(model.getNumOutcomes()));
+            for (int i = 0; i < model.getNumOutcomes(); i++) {
+                assertThat(compactModel.getOutcome(i), is(model.getOutcome(i)));
+            }
+        }
+
+        // known predicates in random combinations, mixed with unknown ones
+        IndexHashTable<String> pmap = (IndexHashTable<String>) model.getDataStructures()[1];
+        String[] predicates = pmap.toArray(new String[pmap.size()]);
+        Random random = new Random(name.hashCode());
+        for (int i = 0; i < 500; i++) {
+            List<String> context = Lists.newArrayList();
+            int size = 1 + random.nextInt(20);
+            for (int j = 0; j < size; j++) {
+                context.add(random.nextInt(10) == 0 ? "unknown=" + random.nextInt() : predicates[random.nextInt(predicates.length)]);
+            }
+            String[] contextArray = context.toArray(new String[context.size()]);
+            float[] values = new float[contextArray.length];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = random.nextFloat();
+            }
+
+            double[] expected = model.eval(contextArray);
+            assertThat(Arrays.toString(contextArray), heapModel.eval(contextArray), is(equalTo(expected)));
+            assertThat(Arrays.toString(contextArray), mappedModel.eval(contextArray), is(equalTo(expected)));
+            double[] expectedWithValues = model.eval(contextArray, values);
+            assertThat(heapModel.eval(contextArray, values), is(equalTo(expectedWithValues)));
+            assertThat(mappedModel.eval(contextArray, values), is(equalTo(expectedWithValues)));
+        }
+    }
+
+    private MappedMaxentModel write(AbstractModel model, String name) throws IOException {
+        File file = new File(directory, name + ".model");
+        CompactModelWriter.write(model, file);
+        return MappedMaxentModel.map(file);
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.module.opennlp.test;
+
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.service.opennlp.ContentChunker;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ContentChunkerTest {
+
+    @Test
+    public void testThatChunksEndAfterSentences() {
+        List<String> chunks = chunks("Jack went to Munich. He met Kobe there! Then they left.", 30);
+        assertThat(chunks, contains("Jack went to Munich.", "He met Kobe there!", "Then they left."));
+    }
+
+    @Test
+    public void testThatChunksWithoutSentenceEndAreCutAtWhitespace() {
+        List<String> chunks = chunks("one two three four five six", 10);
+        assertThat(chunks, contains("one two", "three four", "five six"));
+    }
+
+    @Test
+    public void testThatChunksWithoutWhitespaceAreCutHard() {
+        List<String> chunks = chunks("abcdefghijklmnopqrstuvwxyz", 10);
+        assertThat(chunks, contains("abcdefghij", "klmnopqrst", "uvwxyz"));
+    }
+
+    @Test
+    public void testThatContentShorterThanChunkSizeIsOneChunk() {
+        assertThat(chunks("  Jack went to Munich.  ", 100), contains("Jack went to Munich.  "));
+        assertThat(chunks("   ", 100), is(empty()));
+    }
+
+    @Test
+    public void testThatChunksCoverAllContentAndMapToDocumentOffsets() {
+        Random random = new Random(0);
+        String content = ModelTestHelper.document(random, 5000, 5);
+        for (int chunkSize : new int[] { 1, 7, 50, 333, 4096 }) {
+            ContentChunker chunker = new ContentChunker(content, chunkSize);
+            StringBuilder nonWhitespace = new StringBuilder();
+            int previousEnd = 0;
+            while (chunker.next()) {
+                assertThat(chunker.start(), greaterThanOrEqualTo(previousEnd));
+                assertThat(chunker.end() - chunker.start(), lessThanOrEqualTo(chunkSize));
+                assertThat(chunker.chunk(), is(content.substring(chunker.start(), chunker.end())));
+                assertThat(content.substring(previousEnd, chunker.start()).trim(), is(""));
+                nonWhitespace.append(chunker.chunk().replaceAll("\\s", ""));
+                previousEnd = chunker.end();
+            }
+            assertThat(nonWhitespace.toString(), is(content.replaceAll("\\s", "")));
+        }
+    }
+
+    private List<String> chunks(String content, int chunkSize) {
+        List<String> chunks = Lists.newArrayList();
+        ContentChunker chunker = new ContentChunker(content, chunkSize);
+        while (chunker.next()) {
+            chunks.add(chunker.chunk());
+        }
+        return chunks;
+    }
+}
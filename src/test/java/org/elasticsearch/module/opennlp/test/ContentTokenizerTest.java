@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.module.opennlp.test;
+
+import opennlp.tools.tokenize.SimpleTokenizer;
+import opennlp.tools.tokenize.Tokenizer;
+import opennlp.tools.tokenize.WhitespaceTokenizer;
+import opennlp.tools.util.Span;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.service.opennlp.ContentTokenizer;
+import org.elasticsearch.service.opennlp.SimpleContentTokenizer;
+import org.elasticsearch.service.opennlp.TokenOffsets;
+import org.elasticsearch.service.opennlp.WhitespaceContentTokenizer;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.is;
+
+public class ContentTokenizerTest {
+
+    // letters, digits, repeated and mixed punctuation and several kinds of whitespace, including a no-break space
+    private static final String CHARACTERS = "aZ\u00e9\u4e2d09\u0663.,!--'\" \t\n\u00a0\u2009";
+
+    @Test
+    public void testThatSimpleTokenizerFindsSameTokensAsOpenNlp() {
+        assertSameTokens(SimpleContentTokenizer.INSTANCE, SimpleTokenizer.INSTANCE);
+    }
+
+    @Test
+    public void testThatWhitespaceTokenizerFindsSameTokensAsOpenNlp() {
+        assertSameTokens(WhitespaceContentTokenizer.INSTANCE, WhitespaceTokenizer.INSTANCE);
+    }
+
+    @Test
+    public void testThatOffsetsCanBeReused() {
+        TokenOffsets offsets = new TokenOffsets(1);
+        String content = "Kobe Bryant was in Munich... yesterday";
+        SimpleContentTokenizer.INSTANCE.tokenize(content, offsets);
+        assertThat(offsets.toStrings(content), arrayContaining("Kobe", "Bryant", "was", "in", "Munich", "...", "yesterday"));
+
+        TokenOffsets copy = offsets.copy();
+        offsets.clear();
+        SimpleContentTokenizer.INSTANCE.tokenize("Munich", offsets);
+        assertThat(offsets.size(), is(1));
+        assertThat(copy.size(), is(7));
+        assertThat(copy.start(5) + " " + copy.end(5), is("25 28"));
+
+        copy.truncate(2);
+        assertThat(copy.toStrings(content), arrayContaining("Kobe", "Bryant"));
+    }
+
+    private void assertSameTokens(ContentTokenizer tokenizer, Tokenizer openNlpTokenizer) {
+        Random random = new Random(0);
+        TokenOffsets offsets = new TokenOffsets();
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                sb.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+            }
+            String content = sb.toString();
+
+            List<String> expected = Lists.newArrayList();
+            for (Span span : openNlpTokenizer.tokenizePos(content)) {
+                expected.add(span.getStart() + " " + span.getEnd());
+            }
+            offsets.clear();
+            tokenizer.tokenize(content, offsets);
+            List<String> actual = Lists.newArrayList();
+            for (int i = 0; i < offsets.size(); i++) {
+                actual.add(offsets.start(i) + " " + offsets.end(i));
+            }
+            assertThat("iteration " + iteration + " [" + content + "]", actual, is(expected));
+        }
+    }
+}
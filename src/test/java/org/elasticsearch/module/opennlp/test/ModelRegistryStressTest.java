@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.module.opennlp.test;
+
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.logging.log4j.LogConfigurator;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.internal.InternalNode;
+import org.elasticsearch.service.opennlp.OpenNlpService;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.elasticsearch.node.NodeBuilder.nodeBuilder;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Starts many nodes in one JVM at the same time, each node needs to end up with its own complete set
+ * of models, while documents are processed on all nodes concurrently
+ */
+public class ModelRegistryStressTest {
+
+    private static final int NODES = 6;
+
+    private List<Node> nodes = new CopyOnWriteArrayList<Node>();
+
+    @After
+    public void closeNodes() {
+        for (Node node : nodes) {
+            node.close();
+        }
+    }
+
+    @Test
+    public void testThatConcurrentlyStartedNodesHaveTheirOwnModels() throws Exception {
+        final Settings settings = ModelTestHelper.settings()
+                .put("gateway.type", "none")
+                .put("node.local", true)
+                .put("http.enabled", false)
+                .build();
+        LogConfigurator.configure(settings);
+
+        final List<String> documents = Lists.newArrayList();
+        Random random = new Random(6);
+        for (int i = 0; i < 20; i++) {
+            documents.add(ModelTestHelper.document(random, 50 + random.nextInt(100), 4));
+        }
+
+        final List<String> errors = new CopyOnWriteArrayList<String>();
+        final List<Map<String, Set<String>>> results = new CopyOnWriteArrayList<Map<String, Set<String>>>();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(NODES);
+        for (int i = 0; i < NODES; i++) {
+            final String clusterName = "opennlp-stress-" + i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        Node node = nodeBuilder().settings(settings).clusterName(clusterName).node();
+                        nodes.add(node);
+                        OpenNlpService service = ((InternalNode) node).injector().getInstance(OpenNlpService.class);
+                        // documents are processed as soon as the node has started, no model may be missing
+                        for (String document : documents) {
+                            results.add(service.tokenize(document));
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e.toString());
+                    } finally {
+                        doneLatch.countDown();
+                    }
+                }
+            }).start();
+        }
+        startLatch.countDown();
+        doneLatch.await();
+
+        assertThat(errors.toString(), errors, is(empty()));
+        assertThat(nodes, hasSize(NODES));
+        assertThat(results, hasSize(NODES * documents.size()));
+
+        List<OpenNlpService> services = Lists.newArrayList();
+        for (Node node : nodes) {
+            OpenNlpService service = ((InternalNode) node).injector().getInstance(OpenNlpService.class);
+            assertThat(service.registry().ready(), is(true));
+            assertThat(service.registry().failures().isEmpty(), is(true));
+            assertThat(service.models().models().keySet(), containsInAnyOrder(ModelTestHelper.TYPES));
+            assertThat(services, not(hasItem(sameInstance(service))));
+            services.add(service);
+        }
+
+        OpenNlpService reference = services.get(0);
+        for (int i = 0; i < documents.size(); i++) {
+            Map<String, Set<String>> expected = reference.tokenize(documents.get(i));
+            for (OpenNlpService service : services) {
+                assertThat(service.tokenize(documents.get(i)), is(equalTo(expected)));
+            }
+        }
+
+        // a reload only affects the node it is executed on
+        long version = services.get(1).models().version();
+        reference.reload("name");
+        assertThat(services.get(1).models().version(), is(version));
+        assertThat(reference.models().model("name"), is(not(sameInstance(services.get(1).models().model("name")))));
+    }
+}
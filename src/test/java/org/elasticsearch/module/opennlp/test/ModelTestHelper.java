@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.module.opennlp.test;
+
+import opennlp.tools.namefind.NameFinderME;
+import opennlp.tools.namefind.NameSample;
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.sentdetect.SentenceDetectorME;
+import opennlp.tools.sentdetect.SentenceModel;
+import opennlp.tools.sentdetect.SentenceSample;
+import opennlp.tools.tokenize.SimpleTokenizer;
+import opennlp.tools.tokenize.TokenSample;
+import opennlp.tools.tokenize.TokenizerME;
+import opennlp.tools.tokenize.TokenizerModel;
+import opennlp.tools.util.CollectionObjectStream;
+import opennlp.tools.util.Span;
+import opennlp.tools.util.TrainingParameters;
+import opennlp.tools.util.model.BaseModel;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.settings.ImmutableSettings;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Trains tiny name finder models from synthetic sentences, so tests do not depend
+ * on the models downloaded from sourceforge
+ */
+public class ModelTestHelper {
+
+    public static final String[] TYPES = { "name", "date", "location" };
+
+    static final String[] NAMES = { "Jack Nicholson", "Kobe Bryant", "Michael Jordan", "Nancy Reagan", "Joanne Drake",
+            "Anna Schmidt", "Peter Miller", "Maria Lopez", "John Smith", "Laura Chen" };
+    static final String[] DATES = { "tomorrow", "yesterday", "Sunday", "Monday", "Friday", "today", "next week" };
+    static final String[] LOCATIONS = { "Munich", "Amsterdam", "Berlin", "Los Angeles", "Santa Monica", "California",
+            "Paris", "London", "New York" };
+    static final String[] FILLER = { "the", "meetup", "was", "a", "great", "search", "talk", "about", "basketball",
+            "players", "of", "all", "time", "and", "some", "people", "said", "that", "it", "is", "one", "best" };
+
+    private static File modelDirectory;
+    private static File tokenizerModelFile;
+    private static File sentenceModelFile;
+
+    /**
+     * Returns a directory containing one trained model per entry in TYPES, named like the
+     * original models, the models are trained only once per JVM
+     */
+    public static synchronized File modelDirectory() throws IOException {
+        if (modelDirectory == null) {
+            File directory = new File(System.getProperty("java.io.tmpdir"), "opennlp-test-models-" + System.nanoTime());
+            if (!directory.mkdirs()) {
+                throw new IOException("Could not create directory " + directory);
+            }
+            directory.deleteOnExit();
+            for (String type : TYPES) {
+                writeModel(train(type), new File(directory, modelFileName(type)));
+            }
+            modelDirectory = directory;
+        }
+        return modelDirectory;
+    }
+
+    /**
+     * Returns a tokenizer model trained on the tokens of the simple tokenizer of synthetic documents
+     */
+    public static synchronized File tokenizerModelFile() throws IOException {
+        if (tokenizerModelFile == null) {
+            List<TokenSample> samples = Lists.newArrayList();
+            Random random = new Random(0);
+            for (int i = 0; i < 200; i++) {
+                String document = document(random, 5 + random.nextInt(20), 4);
+                samples.add(new TokenSample(document, SimpleTokenizer.INSTANCE.tokenizePos(document)));
+            }
+            TokenizerModel model = TokenizerME.train("en", new CollectionObjectStream<TokenSample>(samples), true, 1, 50);
+            File file = new File(modelDirectory(), "en-token.bin");
+            writeModel(model, file);
+            tokenizerModelFile = file;
+        }
+        return tokenizerModelFile;
+    }
+
+    /**
+     * Returns a sentence model trained on synthetic documents, whose sentences end with a dot
+     */
+    public static synchronized File sentenceModelFile() throws IOException {
+        if (sentenceModelFile == null) {
+            List<SentenceSample> samples = Lists.newArrayList();
+            Random random = new Random(0);
+            for (int i = 0; i < 200; i++) {
+                // the dots within numbers are the samples of dots not ending a sentence
+                String document = document(random, 10 + random.nextInt(40), 4).replace(" was ", " was 3.5 ");
+                List<Span> sentences = Lists.newArrayList();
+                int start = 0;
+                for (int end = document.indexOf(". "); end >= 0; end = document.indexOf(". ", start)) {
+                    sentences.add(new Span(start, end + 1));
+                    start = end + 2;
+                }
+                sentences.add(new Span(start, document.length()));
+                samples.add(new SentenceSample(document, sentences.toArray(new Span[sentences.size()])));
+            }
+            SentenceModel model = SentenceDetectorME.train("en", new CollectionObjectStream<SentenceSample>(samples), true, null, 1, 50);
+            File file = new File(modelDirectory(), "en-sent.bin");
+            writeModel(model, file);
+            sentenceModelFile = file;
+        }
+        return sentenceModelFile;
+    }
+
+    public static String modelFileName(String type) {
+        return "en-ner-" + ("name".equals(type) ? "person" : type) + ".bin";
+    }
+
+    public static ImmutableSettings.Builder settings() throws IOException {
+        // the tests inspect the loaded models right after starting the service
+        ImmutableSettings.Builder builder = ImmutableSettings.settingsBuilder().put("opennlp.models.start_timeout", "1m");
+        for (String type : TYPES) {
+            builder.put("opennlp.models." + type + ".file", new File(modelDirectory(), modelFileName(type)).getAbsolutePath());
+        }
+        return builder;
+    }
+
+    public static TokenNameFinderModel train(String type) throws IOException {
+        return NameFinderME.train("en", type, new CollectionObjectStream<NameSample>(samples(type)),
+                Collections.<String, Object>emptyMap(), 50, 1);
+    }
+
+    /**
+     * Trains a model with other parameters, for example with the perceptron algorithm
+     */
+    public static TokenNameFinderModel train(String type, TrainingParameters parameters) throws IOException {
+        return NameFinderME.train("en", type, new CollectionObjectStream<NameSample>(samples(type)), parameters,
+                (byte[]) null, Collections.<String, Object>emptyMap());
+    }
+
+    private static List<NameSample> samples(String type) {
+        List<NameSample> samples = Lists.newArrayList();
+        Random random = new Random(type.hashCode());
+        for (int i = 0; i < 300; i++) {
+            samples.add(sample(type, random));
+        }
+        return samples;
+    }
+
+    /**
+     * Creates a synthetic document with roughly the given number of tokens, every
+     * entityEvery tokens an entity of a random type is inserted
+     */
+    public static String document(Random random, int tokenCount, int entityEvery) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= tokenCount; i++) {
+            if (entityEvery > 0 && i % entityEvery == 0) {
+                sb.append(pick(random, pick(random, new String[][] { NAMES, DATES, LOCATIONS })));
+            } else {
+                sb.append(pick(random, FILLER));
+            }
+            sb.append(i % 12 == 0 ? ". " : " ");
+        }
+        return sb.append(".").toString();
+    }
+
+    private static NameSample sample(String type, Random random) {
+        List<String> tokens = Lists.newArrayList();
+        List<Span> spans = Lists.newArrayList();
+        String[] entities = "name".equals(type) ? NAMES : "date".equals(type) ? DATES : LOCATIONS;
+        int length = 6 + random.nextInt(10);
+        for (int i = 0; i < length; i++) {
+            int choice = random.nextInt(6);
+            if (choice == 0) {
+                String[] entityTokens = pick(random, entities).split(" ");
+                spans.add(new Span(tokens.size(), tokens.size() + entityTokens.length, type));
+                Collections.addAll(tokens, entityTokens);
+            } else if (choice == 1) {
+                String[][] others = { NAMES, DATES, LOCATIONS };
+                String[] other = others[random.nextInt(others.length)];
+                if (other != entities) {
+                    Collections.addAll(tokens, pick(random, other).split(" "));
+                }
+            } else {
+                tokens.add(pick(random, FILLER));
+            }
+        }
+        tokens.add(".");
+        return new NameSample(tokens.toArray(new String[tokens.size()]), spans.toArray(new Span[spans.size()]), true);
+    }
+
+    private static <T> T pick(Random random, T[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static void writeModel(BaseModel model, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            model.serialize(out);
+        } finally {
+            out.close();
+        }
+        file.deleteOnExit();
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.module.opennlp.test;
+
+import opennlp.tools.namefind.TokenNameFinderModel;
+import org.elasticsearch.service.opennlp.NameFinderPool;
+import org.elasticsearch.service.opennlp.OpenNlpService;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class NameFinderPoolTest {
+
+    @Test
+    public void testThatInvalidatedModelsAreNotReachableFromIdleThreads() throws Exception {
+        NameFinderPool pool = new NameFinderPool();
+        TokenNameFinderModel nameModel = ModelTestHelper.train("name");
+        WeakReference<TokenNameFinderModel> model = new WeakReference<TokenNameFinderModel>(nameModel);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread thread = acquireAndWait(pool, model, done);
+        nameModel = null;
+        try {
+            assertThat(pool.size(), is(1));
+
+            pool.invalidate();
+
+            assertThat(pool.size(), is(0));
+            assertThat(collected(model), is(true));
+        } finally {
+            done.countDown();
+            thread.join();
+        }
+    }
+
+    @Test
+    public void testThatNewerModelsDropTheFindersOfAllTypes() throws Exception {
+        NameFinderPool pool = new NameFinderPool();
+        TokenNameFinderModel nameModel = ModelTestHelper.train("name");
+        TokenNameFinderModel locationModel = ModelTestHelper.train("location");
+        WeakReference<TokenNameFinderModel> oldNameModel = new WeakReference<TokenNameFinderModel>(nameModel);
+
+        pool.acquire("name", nameModel, 1);
+        nameModel = null;
+        pool.acquire("location", locationModel, 2);
+
+        assertThat(pool.size(), is(1));
+        assertThat(collected(oldNameModel), is(true));
+        // a document processed with the older models during a reload does not pool its finder
+        assertThat(pool.acquire("location", locationModel, 1), not(sameInstance(pool.acquire("location", locationModel, 1))));
+        assertThat(pool.size(), is(1));
+    }
+
+    @Test
+    public void testThatReloadingDropsPooledFinders() throws Exception {
+        OpenNlpService service = new OpenNlpService(ModelTestHelper.settings().build()).start();
+        try {
+            service.tokenize("Kobe Bryant was in Munich yesterday");
+            assertThat(service.finderPool().size(), is(ModelTestHelper.TYPES.length));
+
+            service.reload("name");
+
+            assertThat(service.finderPool().size(), is(0));
+        } finally {
+            service.close();
+        }
+    }
+
+    /* the thread pools a finder of the model and stays alive, like an idle indexing thread */
+    private Thread acquireAndWait(final NameFinderPool pool, final WeakReference<TokenNameFinderModel> model,
+                                  final CountDownLatch done) throws InterruptedException {
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                pool.acquire("name", model.get(), 1);
+                acquired.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        thread.start();
+        acquired.await();
+        return thread;
+    }
+
+    private boolean collected(WeakReference<?> reference) throws InterruptedException {
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        return reference.get() == null;
+    }
+}
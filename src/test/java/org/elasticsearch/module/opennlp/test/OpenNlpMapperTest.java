@@ -0,0 +1,430 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.module.opennlp.test;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexableField;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.collect.Maps;
+import org.elasticsearch.common.logging.log4j.LogConfigurator;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.analysis.AnalysisService;
+import org.elasticsearch.index.analysis.AnalyzerProviderFactory;
+import org.elasticsearch.index.analysis.AnalyzerScope;
+import org.elasticsearch.index.analysis.PreBuiltAnalyzerProviderFactory;
+import org.elasticsearch.index.codec.postingsformat.PostingsFormatService;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.DocumentMapperParser;
+import org.elasticsearch.index.mapper.MapperParsingException;
+import org.elasticsearch.index.mapper.opennlp.OpenNlpMapper;
+import org.elasticsearch.index.similarity.SimilarityLookupService;
+import org.elasticsearch.service.opennlp.OpenNlpService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the sub-fields generated from the configured models, using the models of {@link ModelTestHelper}
+ */
+public class OpenNlpMapperTest {
+
+    private static final String TEXT = "Jack Nicholson and Kobe Bryant will be in Munich tomorrow";
+
+    private final Index index = new Index("test");
+    private AnalysisService analysisService;
+    private OpenNlpService openNlpService;
+    private DocumentMapperParser mapperParser;
+
+    @Before
+    public void setupMapperParser() throws Exception {
+        Map<String, AnalyzerProviderFactory> analyzerFactoryFactories = Maps.newHashMap();
+        analyzerFactoryFactories.put("keyword", new PreBuiltAnalyzerProviderFactory("keyword", AnalyzerScope.INDEX, new KeywordAnalyzer()));
+        analysisService = new AnalysisService(index, ImmutableSettings.Builder.EMPTY_SETTINGS, null, analyzerFactoryFactories, null, null, null);
+
+        // any type can be configured, the organization type reuses the disabled date model here
+        File dateModel = new File(ModelTestHelper.modelDirectory(), ModelTestHelper.modelFileName("date"));
+        Settings settings = ModelTestHelper.settings()
+                .put("opennlp.models.organization.file", dateModel.getAbsolutePath())
+                .put("opennlp.models.date.enabled", false)
+                .build();
+        LogConfigurator.configure(settings);
+
+        openNlpService = new OpenNlpService(settings);
+        openNlpService.start();
+        mapperParser = mapperParser(openNlpService);
+    }
+
+    @After
+    public void closeService() {
+        openNlpService.close();
+    }
+
+    @Test
+    public void testThatSubFieldsAreCreatedForConfiguredModels() throws Exception {
+        assertThat(openNlpService.modelTypes(), contains("location", "name", "organization"));
+
+        DocumentMapper docMapper = mapperParser.parse(mapping(jsonBuilder().startObject().field("type", "opennlp").endObject().string()));
+        Document doc = parse(docMapper);
+
+        assertThat(doc.get(docMapper.mappers().smartName("someField").mapper().names().indexName()), is(TEXT));
+        assertThat(doc.getFields("someField.name").length, is(2));
+        assertThat(doc.get("someField.location"), is("Munich"));
+        assertThat(doc.get("someField.organization"), is("tomorrow"));
+        assertThat(docMapper.mappers().smartName("someField.date"), is(nullValue()));
+
+        // re-parse it
+        docMapper = mapperParser.parse(docMapper.mappingSource().string());
+        doc = parse(docMapper);
+        assertThat(doc.getFields("someField.name").length, is(2));
+        assertThat(doc.get("someField.organization"), is("tomorrow"));
+    }
+
+    @Test
+    public void testThatAnalyzerCanBeSetPerType() throws Exception {
+        String field = jsonBuilder().startObject()
+                .field("type", "opennlp")
+                .field("organization_analyzer", "keyword")
+                .field("person_analyzer", "keyword")
+                .endObject().string();
+        DocumentMapper docMapper = mapperParser.parse(mapping(field));
+
+        String mappingSource = docMapper.mappingSource().string();
+        assertThat(mappingSource, containsString("\"organization\":{\"type\":\"string\",\"analyzer\":\"keyword\"}"));
+        assertThat(mappingSource, containsString("\"name\":{\"type\":\"string\",\"analyzer\":\"keyword\"}"));
+        assertThat(mappingSource, not(containsString("\"location\":{\"type\":\"string\",\"analyzer\"")));
+    }
+
+    @Test
+    public void testThatEntitiesRestrictTheExtractedTypes() throws Exception {
+        String field = jsonBuilder().startObject()
+                .field("type", "opennlp")
+                .array("entities", "location")
+                .endObject().string();
+        DocumentMapper docMapper = mapperParser.parse(mapping(field));
+        Document doc = parse(docMapper);
+
+        assertThat(doc.get("someField.location"), is("Munich"));
+        assertThat(doc.getFields("someField.name").length, is(0));
+        assertThat(docMapper.mappers().smartName("someField.name"), is(nullValue()));
+        assertThat(docMapper.mappers().smartName("someField.organization"), is(nullValue()));
+
+        // re-parse it, the models configured meanwhile must not add sub-fields
+        String mappingSource = docMapper.mappingSource().string();
+        assertThat(mappingSource, containsString("\"entities\":[\"location\"]"));
+        docMapper = mapperParser.parse(mappingSource);
+        assertThat(docMapper.mappers().smartName("someField.name"), is(nullValue()));
+        assertThat(parse(docMapper).get("someField.location"), is("Munich"));
+    }
+
+    @Test
+    public void testThatEntitiesOfAllArrayValuesAreIndexed() throws Exception {
+        DocumentMapper docMapper = mapperParser.parse(mapping(jsonBuilder().startObject().field("type", "opennlp").endObject().string()));
+        BytesReference json = jsonBuilder().startObject().field("_id", 1)
+                .array("someField", TEXT, "Kobe Bryant was in Munich yesterday")
+                .endObject().bytes();
+        Document doc = docMapper.parse(json).rootDoc();
+
+        assertThat(doc.getValues(docMapper.mappers().smartName("someField").mapper().names().indexName()),
+                arrayContaining(TEXT, "Kobe Bryant was in Munich yesterday"));
+        // entities found in several values are indexed once
+        assertThat(doc.getValues("someField.name"), arrayContainingInAnyOrder("Jack Nicholson", "Kobe Bryant"));
+        assertThat(doc.getValues("someField.location"), arrayContaining("Munich"));
+    }
+
+    @Test
+    public void testThatEntitiesOfAllObjectValuesAreIndexed() throws Exception {
+        DocumentMapper docMapper = mapperParser.parse(mapping(jsonBuilder().startObject().field("type", "opennlp").endObject().string()));
+        BytesReference json = jsonBuilder().startObject().field("_id", 1)
+                .startObject("someField")
+                    .field("title", "Kobe Bryant")
+                    .array("paragraphs", TEXT, "Kobe Bryant was in Munich yesterday")
+                    .nullField("footer")
+                .endObject()
+                .field("otherField", "Jack Nicholson")
+                .endObject().bytes();
+        Document doc = docMapper.parse(json).rootDoc();
+
+        assertThat(doc.getValues(docMapper.mappers().smartName("someField").mapper().names().indexName()).length, is(3));
+        assertThat(doc.getValues("someField.name"), arrayContainingInAnyOrder("Jack Nicholson", "Kobe Bryant"));
+        assertThat(doc.getValues("someField.location"), arrayContaining("Munich"));
+        // the parser is positioned after the object
+        assertThat(doc.get("otherField"), is("Jack Nicholson"));
+    }
+
+    @Test
+    public void testThatNullValuesHaveNoEntities() throws Exception {
+        DocumentMapper docMapper = mapperParser.parse(mapping(jsonBuilder().startObject().field("type", "opennlp").endObject().string()));
+        Document doc = docMapper.parse(jsonBuilder().startObject().field("_id", 1).nullField("someField").endObject().bytes()).rootDoc();
+        assertThat(doc.getFields("someField.name").length, is(0));
+
+        doc = docMapper.parse(jsonBuilder().startObject().field("_id", 1).startArray("someField").nullValue().endArray().endObject().bytes()).rootDoc();
+        assertThat(doc.getFields("someField.name").length, is(0));
+    }
+
+    @Test
+    public void testThatLimitsRestrictTheIndexedEntities() throws Exception {
+        String field = jsonBuilder().startObject()
+                .field("type", "opennlp")
+                .field("min_probability", 0.0)
+                .field("person_max_entities", 1)
+                .field("location_max_entities", 0)
+                .endObject().string();
+        DocumentMapper docMapper = mapperParser.parse(mapping(field));
+        BytesReference json = jsonBuilder().startObject().field("_id", 1)
+                .array("someField", TEXT, "Kobe Bryant was in Munich yesterday")
+                .endObject().bytes();
+        Document doc = docMapper.parse(json).rootDoc();
+
+        assertThat(doc.getFields("someField.name").length, is(1));
+        assertThat(doc.getFields("someField.location").length, is(0));
+        assertThat(doc.get("someField.organization"), is("tomorrow"));
+
+        // re-parse it
+        String mappingSource = docMapper.mappingSource().string();
+        assertThat(mappingSource, containsString("\"min_probability\":0.0"));
+        assertThat(mappingSource, containsString("\"name_max_entities\":1"));
+        docMapper = mapperParser.parse(mappingSource);
+        assertThat(docMapper.parse(json).rootDoc().getFields("someField.name").length, is(1));
+    }
+
+    @Test
+    public void testThatLimitedDocumentsAreMarked() throws Exception {
+        String field = jsonBuilder().startObject()
+                .field("type", "opennlp")
+                .field("max_chars", 20)
+                .field("max_time", "10s")
+                .endObject().string();
+        DocumentMapper docMapper = mapperParser.parse(mapping(field));
+        Document doc = parse(docMapper);
+
+        assertThat(doc.get("someField.name"), is("Jack Nicholson"));
+        assertThat(doc.getFields("someField.location").length, is(0));
+        assertThat(doc.get("someField." + OpenNlpMapper.LIMITED), is("true"));
+        assertThat(docMapper.mappers().smartName("someField." + OpenNlpMapper.LIMITED), is(notNullValue()));
+
+        BytesReference json = jsonBuilder().startObject().field("_id", 1).field("someField", "Kobe Bryant").endObject().bytes();
+        assertThat(docMapper.parse(json).rootDoc().get("someField." + OpenNlpMapper.LIMITED), is(nullValue()));
+
+        // re-parse it
+        String mappingSource = docMapper.mappingSource().string();
+        assertThat(mappingSource, containsString("\"max_chars\":20"));
+        assertThat(mappingSource, containsString("\"max_time\":\"10000ms\""));
+        docMapper = mapperParser.parse(mappingSource);
+        assertThat(parse(docMapper).get("someField." + OpenNlpMapper.LIMITED), is("true"));
+    }
+
+    @Test
+    public void testThatLimitedDocumentsCanBeSkipped() throws Exception {
+        DocumentMapper docMapper = mapperParser.parse(mapping("{\"type\":\"opennlp\",\"max_tokens\":3,\"on_limit\":\"skip\"}"));
+        Document doc = parse(docMapper);
+
+        assertThat(doc.getFields("someField.name").length, is(0));
+        assertThat(doc.get("someField." + OpenNlpMapper.LIMITED), is("true"));
+        assertThat(docMapper.mappingSource().string(), containsString("\"on_limit\":\"skip\""));
+    }
+
+    @Test
+    public void testThatEntitiesCanBeIndexedInline() throws Exception {
+        String field = jsonBuilder().startObject()
+                .field("type", "opennlp")
+                .field("inline_entities", true)
+                .startObject("fields").startObject("someField").field("type", "string").field("store", "yes").endObject().endObject()
+                .endObject().string();
+        DocumentMapper docMapper = mapperParser.parse(mapping(field));
+        Document doc = parse(docMapper);
+
+        assertThat(docMapper.mappers().smartName("someField.name"), is(nullValue()));
+        assertThat(doc.getFields("someField.name").length, is(0));
+        String indexName = docMapper.mappers().smartName("someField").mapper().names().indexName();
+        assertThat(doc.get(indexName), is(TEXT));
+
+        // the entities follow their first token at the same position, the entity text is not analyzed, stopwords are removed
+        List<String> tokens = Lists.newArrayList();
+        for (IndexableField indexableField : doc.getFields(indexName)) {
+            if (indexableField.fieldType().indexed()) {
+                tokens.addAll(tokens(indexableField.tokenStream(null)));
+            }
+        }
+        assertThat(tokens, contains("jack/1", "name:Jack Nicholson/0", "nicholson/1", "kobe/2", "name:Kobe Bryant/0", "bryant/1",
+                "munich/4", "location:Munich/0", "tomorrow/1", "organization:tomorrow/0"));
+
+        // re-parse it
+        String mappingSource = docMapper.mappingSource().string();
+        assertThat(mappingSource, containsString("\"inline_entities\":true"));
+        docMapper = mapperParser.parse(mappingSource);
+        assertThat(docMapper.mappers().smartName("someField.name"), is(nullValue()));
+    }
+
+    @Test
+    public void testThatAllEntitiesOfATokenAreIndexedInline() throws Exception {
+        String field = jsonBuilder().startObject()
+                .field("type", "opennlp")
+                .field("inline_entities", true)
+                .startObject("fields").startObject("someField").field("type", "string").field("analyzer", "keyword").endObject().endObject()
+                .endObject().string();
+        DocumentMapper docMapper = mapperParser.parse(mapping(field));
+        Document doc = parse(docMapper);
+
+        // the whole content is a single token, all entities start within it
+        String indexName = docMapper.mappers().smartName("someField").mapper().names().indexName();
+        List<String> tokens = Lists.newArrayList();
+        for (IndexableField indexableField : doc.getFields(indexName)) {
+            if (indexableField.fieldType().indexed()) {
+                tokens.addAll(tokens(indexableField.tokenStream(null)));
+            }
+        }
+        assertThat(tokens, contains(TEXT + "/1", "name:Jack Nicholson/0", "name:Kobe Bryant/0", "location:Munich/0",
+                "organization:tomorrow/0"));
+    }
+
+    @Test
+    public void testThatInlineEntitiesNeedAnAnalyzedContent() throws Exception {
+        String field = jsonBuilder().startObject()
+                .field("type", "opennlp")
+                .field("inline_entities", true)
+                .startObject("fields").startObject("someField").field("type", "string").field("index", "not_analyzed").endObject().endObject()
+                .endObject().string();
+        try {
+            mapperParser.parse(mapping(field));
+            fail("inline_entities of a not_analyzed content should have been rejected");
+        } catch (MapperParsingException e) {
+            assertThat(e.getMessage(), containsString("[inline_entities]"));
+        }
+    }
+
+    @Test(expected = MapperParsingException.class)
+    public void testThatInvalidOnLimitIsRejected() throws Exception {
+        mapperParser.parse(mapping("{\"type\":\"opennlp\",\"on_limit\":\"block\"}"));
+    }
+
+    @Test(expected = MapperParsingException.class)
+    public void testThatInvalidMinProbabilityIsRejected() throws Exception {
+        mapperParser.parse(mapping("{\"type\":\"opennlp\",\"min_probability\":2}"));
+    }
+
+    @Test
+    public void testThatUnknownTypesAreRejected() throws Exception {
+        String[] fields = {
+                "{\"type\":\"opennlp\",\"index_analyzer\":\"keyword\"}",
+                "{\"type\":\"opennlp\",\"lcoation_analyzer\":\"keyword\"}",
+                "{\"type\":\"opennlp\",\"persn_max_entities\":1}",
+                "{\"type\":\"opennlp\",\"lcoation_min_probability\":0.5}",
+                "{\"type\":\"opennlp\",\"entities\":[\"location\"],\"name_max_entities\":1}"
+        };
+        String[] keys = { "[index_analyzer]", "[lcoation_analyzer]", "[persn_max_entities]", "[lcoation_min_probability]",
+                "[name_max_entities]" };
+        for (int i = 0; i < fields.length; i++) {
+            try {
+                mapperParser.parse(mapping(fields[i]));
+                fail("mapping " + fields[i] + " should have been rejected");
+            } catch (MapperParsingException e) {
+                assertThat(e.getMessage(), containsString(keys[i]));
+            }
+        }
+
+        // types listed in entities are known, even without a configured model
+        String field = "{\"type\":\"opennlp\",\"entities\":[\"location\",\"money\"],\"money_analyzer\":\"keyword\"}";
+        DocumentMapper docMapper = mapperParser.parse(mapping(field));
+        assertThat(docMapper.mappers().smartName("someField.money"), is(notNullValue()));
+    }
+
+    @Test
+    public void testThatStoredMappingsOfDisabledTypesCanBeParsed() throws Exception {
+        String field = "{\"type\":\"opennlp\",\"organization_analyzer\":\"keyword\"}";
+        String mappingSource = mapperParser.parse(mapping(field)).mappingSource().string();
+
+        // the organization model is no longer configured, as on another node or after it was disabled
+        OpenNlpService service = new OpenNlpService(ModelTestHelper.settings().put("opennlp.models.date.enabled", false).build());
+        service.start();
+        try {
+            assertThat(service.modelTypes(), contains("location", "name"));
+            DocumentMapper docMapper = mapperParser(service).parse(mappingSource);
+            assertThat(docMapper.mappers().smartName("someField.organization"), is(notNullValue()));
+            assertThat(docMapper.mappers().smartName("someField.name"), is(notNullValue()));
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testThatStoredLimitsOfDisabledTypesCanBeParsed() throws Exception {
+        String field = "{\"type\":\"opennlp\",\"inline_entities\":true,\"organization_max_entities\":1}";
+        String mappingSource = mapperParser.parse(mapping(field)).mappingSource().string();
+        assertThat(mappingSource, containsString("\"organization_max_entities\":1"));
+
+        OpenNlpService service = new OpenNlpService(ModelTestHelper.settings().put("opennlp.models.date.enabled", false).build());
+        service.start();
+        try {
+            DocumentMapper docMapper = mapperParser(service).parse(mappingSource);
+            assertThat(docMapper.mappingSource().string(), containsString("\"organization_max_entities\":1"));
+            assertThat(docMapper.mappers().smartName("someField.organization"), is(nullValue()));
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test(expected = MapperParsingException.class)
+    public void testThatEmptyEntitiesAreRejected() throws Exception {
+        mapperParser.parse(mapping("{\"type\":\"opennlp\",\"entities\":[]}"));
+    }
+
+    private DocumentMapperParser mapperParser(OpenNlpService service) {
+        DocumentMapperParser parser = new DocumentMapperParser(index, analysisService, new PostingsFormatService(index),
+                new SimilarityLookupService(index, ImmutableSettings.Builder.EMPTY_SETTINGS));
+        parser.putTypeParser(OpenNlpMapper.CONTENT_TYPE, new OpenNlpMapper.TypeParser(analysisService, service));
+        return parser;
+    }
+
+    private String mapping(String field) {
+        return "{\"someType\":{\"properties\":{\"someField\":" + field + "}}}";
+    }
+
+    private List<String> tokens(TokenStream tokenStream) throws Exception {
+        CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+        PositionIncrementAttribute positionIncrementAttribute = tokenStream.addAttribute(PositionIncrementAttribute.class);
+        List<String> tokens = Lists.newArrayList();
+        tokenStream.reset();
+        while (tokenStream.incrementToken()) {
+            tokens.add(termAttribute.toString() + "/" + positionIncrementAttribute.getPositionIncrement());
+        }
+        tokenStream.end();
+        tokenStream.close();
+        return tokens;
+    }
+
+    private Document parse(DocumentMapper docMapper) throws Exception {
+        BytesReference json = jsonBuilder().startObject().field("_id", 1).field("someField", TEXT).endObject().bytes();
+        return docMapper.parse(json).rootDoc();
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.module.opennlp.test;
+
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.logging.log4j.LogConfigurator;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.service.opennlp.EntitySpans;
+import org.elasticsearch.service.opennlp.OpenNlpService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Checks that the pooled finders and buffers give the same results under contention as on a single thread,
+ * the throughput is measured by the tokenizeConcurrently benchmark
+ */
+public class OpenNlpServiceConcurrencyTest {
+
+    private static final int THREADS = 4;
+    private static final int ROUNDS = 3;
+
+    private OpenNlpService openNlpService;
+    private List<String> documents = Lists.newArrayList();
+
+    @Before
+    public void startService() throws Exception {
+        Settings settings = ModelTestHelper.settings().build();
+        LogConfigurator.configure(settings);
+        openNlpService = new OpenNlpService(settings);
+        openNlpService.start();
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            documents.add(ModelTestHelper.document(random, 20 + random.nextInt(100), 3 + random.nextInt(10)));
+        }
+    }
+
+    @After
+    public void closeService() {
+        openNlpService.close();
+    }
+
+    @Test
+    public void testThatConcurrentIndexingThreadsExtractIdenticalEntities() throws Exception {
+        // the positions, types and probabilities, not only the texts, have to be the same
+        final List<String> expected = Lists.newArrayList();
+        int entityCount = 0;
+        for (String document : documents) {
+            EntitySpans entities = openNlpService.entities(document, null);
+            expected.add(describe(document, entities));
+            entityCount += entities.size();
+        }
+        assertThat(entityCount, greaterThan(documents.size()));
+
+        final AtomicInteger extracted = new AtomicInteger();
+        final List<String> errors = new CopyOnWriteArrayList<String>();
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch doneLatch = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(t);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        List<Integer> order = Lists.newArrayList();
+                        for (int i = 0; i < documents.size(); i++) {
+                            order.add(i);
+                        }
+                        for (int round = 0; round < ROUNDS; round++) {
+                            Collections.shuffle(order, random);
+                            for (int i : order) {
+                                String entities = describe(documents.get(i), openNlpService.entities(documents.get(i), null));
+                                if (!entities.equals(expected.get(i))) {
+                                    errors.add("document " + i + ": expected " + expected.get(i) + " but got " + entities);
+                                }
+                                extracted.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e.toString());
+                    } finally {
+                        doneLatch.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        startLatch.countDown();
+        doneLatch.await();
+
+        assertThat(errors.toString(), errors, is(empty()));
+        assertThat(extracted.get(), is(THREADS * ROUNDS * documents.size()));
+    }
+
+    private static String describe(String document, EntitySpans entities) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < entities.size(); i++) {
+            builder.append(entities.type(i)).append(' ').append(entities.text(document, i)).append(" [")
+                    .append(entities.start(i)).append("..").append(entities.end(i)).append(") ").append(entities.prob(i)).append('\n');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,704 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.module.opennlp.test;
+
+import opennlp.tools.namefind.TokenNameFinderModel;
+import opennlp.tools.tokenize.SimpleTokenizer;
+import org.elasticsearch.ElasticSearchIllegalArgumentException;
+import org.elasticsearch.common.collect.ImmutableSet;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.collect.Maps;
+import org.elasticsearch.common.collect.Sets;
+import org.elasticsearch.common.logging.log4j.LogConfigurator;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.service.opennlp.ContentChunker;
+import org.elasticsearch.service.opennlp.EntityLimits;
+import org.elasticsearch.service.opennlp.EntitySpans;
+import org.elasticsearch.service.opennlp.ModelContentTokenizer;
+import org.elasticsearch.service.opennlp.OpenNlpModelsNotReadyException;
+import org.elasticsearch.service.opennlp.OpenNlpService;
+import org.elasticsearch.service.opennlp.OpenNlpStats;
+import org.elasticsearch.service.opennlp.SimpleContentTokenizer;
+import org.elasticsearch.service.opennlp.TokenOffsets;
+import org.elasticsearch.service.opennlp.WhitespaceContentTokenizer;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
+
+public class OpenNlpServiceTest {
+
+    private List<OpenNlpService> services = Lists.newArrayList();
+
+    @After
+    public void closeServices() {
+        for (OpenNlpService service : services) {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testThatParallelModelsFindSameEntities() throws Exception {
+        OpenNlpService sequentialService = startService(ModelTestHelper.settings());
+        OpenNlpService parallelService = startService(ModelTestHelper.settings()
+                .put("opennlp.parallel_models", true)
+                .put("opennlp.parallel_models.min_tokens", 50)
+                .put("opennlp.parallel_models.size", 2));
+
+        Random random = new Random(1);
+        for (int i = 0; i < 20; i++) {
+            String document = ModelTestHelper.document(random, 10 + random.nextInt(200), 4);
+            Map<String, Set<String>> expected = sequentialService.tokenize(document);
+            assertThat(expected.isEmpty(), is(false));
+            assertThat(parallelService.tokenize(document), is(equalTo(expected)));
+        }
+    }
+
+    @Test
+    public void testThatStoppingParallelModelsDoesNotBlockExtraction() throws Exception {
+        final OpenNlpService service = startService(ModelTestHelper.settings()
+                .put("opennlp.parallel_models", true)
+                .put("opennlp.parallel_models.min_tokens", 10)
+                .put("opennlp.parallel_models.size", 1));
+        final List<String> documents = Lists.newArrayList();
+        Random random = new Random(8);
+        for (int i = 0; i < 10; i++) {
+            documents.add(ModelTestHelper.document(random, 200, 4));
+        }
+        final Map<String, Set<String>> expected = service.tokenize(documents.get(0));
+        final CountDownLatch started = new CountDownLatch(4);
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+
+        // the single pool thread cannot keep up, so models are queued when the pool is shut down
+        List<Thread> threads = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        started.countDown();
+                        for (int j = 0; j < 50; j++) {
+                            service.tokenize(documents.get(j % documents.size()));
+                        }
+                        assertThat(service.tokenize(documents.get(0)), is(equalTo(expected)));
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        started.await();
+        Thread.sleep(100);
+        service.stop();
+
+        for (Thread thread : threads) {
+            thread.join(TimeValue.timeValueMinutes(1).millis());
+            assertThat("extraction is blocked", thread.isAlive(), is(false));
+        }
+        assertThat(failures.toString(), failures.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testThatChunkedExtractionFindsEntitiesOfAllChunks() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings());
+        OpenNlpService chunkedService = startService(ModelTestHelper.settings().put("opennlp.chunk_size", 200));
+
+        String document = ModelTestHelper.document(new Random(2), 2000, 6);
+        Map<String, Set<String>> expected = Maps.newHashMap();
+        ContentChunker chunker = new ContentChunker(document, 200);
+        while (chunker.next()) {
+            for (Map.Entry<String, Set<String>> entry : service.tokenize(chunker.chunk()).entrySet()) {
+                if (!expected.containsKey(entry.getKey())) {
+                    expected.put(entry.getKey(), Sets.<String>newHashSet());
+                }
+                expected.get(entry.getKey()).addAll(entry.getValue());
+            }
+        }
+
+        assertThat(expected.keySet(), containsInAnyOrder(ModelTestHelper.TYPES));
+        assertThat(chunkedService.tokenize(document), is(equalTo(expected)));
+    }
+
+    @Test
+    public void testThatEntitiesHaveCharacterOffsetsOfTheContent() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings());
+        String content = "Jack Nicholson and Kobe  Bryant will be in Munich, tomorrow";
+
+        EntitySpans entities = service.entities(content, null);
+        List<String> spans = Lists.newArrayList();
+        for (int i = 0; i < entities.size(); i++) {
+            spans.add(entities.type(i) + " [" + entities.start(i) + ".." + entities.end(i) + ") " + entities.text(content, i));
+        }
+        // the text is the one of the content, not the tokens joined by a single whitespace
+        assertThat(spans, hasItems("name [19..31) Kobe  Bryant", "location [43..49) Munich"));
+        assertThat(service.tokenize(content).get("name"), hasItem("Kobe  Bryant"));
+    }
+
+    @Test
+    public void testThatChunkedEntitiesHaveOffsetsOfTheWholeContent() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings());
+        OpenNlpService chunkedService = startService(ModelTestHelper.settings().put("opennlp.chunk_size", 200));
+
+        String document = ModelTestHelper.document(new Random(8), 1000, 5);
+        List<String> expected = Lists.newArrayList();
+        ContentChunker chunker = new ContentChunker(document, 200);
+        while (chunker.next()) {
+            EntitySpans entities = service.entities(chunker.chunk(), null);
+            for (int i = 0; i < entities.size(); i++) {
+                expected.add(entities.type(i) + " " + (chunker.start() + entities.start(i)) + " " + (chunker.start() + entities.end(i)));
+            }
+        }
+
+        EntitySpans entities = chunkedService.entities(document, null);
+        List<String> spans = Lists.newArrayList();
+        for (int i = 0; i < entities.size(); i++) {
+            spans.add(entities.type(i) + " " + entities.start(i) + " " + entities.end(i));
+        }
+        assertThat(expected.isEmpty(), is(false));
+        assertThat(spans, is(expected));
+    }
+
+    @Test
+    public void testThatLimitsDropImprobableEntities() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings().put("opennlp.cache.size", "1mb"));
+        String document = ModelTestHelper.document(new Random(9), 300, 3);
+        // a single type has no conflicts, so the limits just remove entities
+        Set<String> names = ImmutableSet.of("name");
+
+        EntitySpans all = service.entities(document, names);
+        double[] probs = new double[all.size()];
+        for (int i = 0; i < all.size(); i++) {
+            probs[i] = all.prob(i);
+        }
+        Arrays.sort(probs);
+        assertThat(probs.length, greaterThan(5));
+        double minProbability = probs[probs.length / 2];
+
+        List<String> expected = Lists.newArrayList();
+        for (int i = 0; i < all.size(); i++) {
+            if (all.prob(i) >= minProbability) {
+                expected.add(all.start(i) + " " + all.end(i));
+            }
+        }
+        EntitySpans probable = service.entities(document, names, new EntityLimits.Builder().minProbability("name", minProbability).build());
+        assertThat(positions(probable), is(expected));
+
+        EntitySpans top = service.entities(document, names, new EntityLimits.Builder().maxEntities(null, 3).build());
+        assertThat(top.size(), is(3));
+        for (int i = 0; i < top.size(); i++) {
+            assertThat(top.prob(i), greaterThanOrEqualTo(probs[probs.length - 3]));
+            assertThat(positions(all), hasItem(top.start(i) + " " + top.end(i)));
+        }
+        // the limits are part of the cache key
+        assertThat(service.cache().count(), is(3L));
+    }
+
+    @Test
+    public void testThatExtractionStopsAtCharAndTokenLimits() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings().put("opennlp.cache.size", "1mb"));
+        String content = "Jack Nicholson and Kobe Bryant will be in Munich tomorrow";
+
+        // the content is cut at the whitespace before the limit, so Kobe is not cut into K
+        EntitySpans entities = service.entities(content, null, new EntityLimits.Builder().maxChars(20).build());
+        assertThat(entities.limited(), is(true));
+        assertThat(entities.toNamedEntities(content).get("name"), contains("Jack Nicholson"));
+        assertThat(entities.toNamedEntities(content).containsKey("location"), is(false));
+
+        // the tokens are shared by all contents, the second one is cut and the third one is not extracted at all
+        EntityLimits maxTokens = new EntityLimits.Builder().maxTokens(13).build();
+        List<EntitySpans> batch = service.entitiesBatch(Arrays.asList(content, content, content), null, maxTokens);
+        assertThat(batch.get(0).limited(), is(false));
+        assertThat(batch.get(0).toNamedEntities(content).get("location"), contains("Munich"));
+        assertThat(batch.get(1).limited(), is(true));
+        assertThat(batch.get(1).toNamedEntities(content).get("name"), contains("Jack Nicholson"));
+        assertThat(batch.get(1).toNamedEntities(content).containsKey("location"), is(false));
+        assertThat(batch.get(2).limited(), is(true));
+        assertThat(batch.get(2).size(), is(0));
+
+        // the cached first content still takes its tokens, so the others are limited as before
+        List<EntitySpans> cachedBatch = service.entitiesBatch(Arrays.asList(content, content, content), null, maxTokens);
+        assertThat(cachedBatch.get(0).limited(), is(false));
+        assertThat(cachedBatch.get(1).limited(), is(true));
+        assertThat(cachedBatch.get(1).toNamedEntities(content).get("name"), contains("Jack Nicholson"));
+        assertThat(cachedBatch.get(1).toNamedEntities(content).containsKey("location"), is(false));
+        assertThat(cachedBatch.get(2).size(), is(0));
+
+        // limited entities are not cached, they depend on the other contents
+        assertThat(service.cache().count(), is(1L));
+        assertThat(service.stats().limited(), is(5L));
+    }
+
+    @Test
+    public void testThatExtractionStopsWhenTimeIsExceeded() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings().put("opennlp.chunk_size", 200));
+        String document = ModelTestHelper.document(new Random(11), 1000, 5);
+
+        EntitySpans entities = service.entities(document, null, new EntityLimits.Builder().maxTime(TimeValue.timeValueNanos(0)).build());
+        assertThat(entities.limited(), is(true));
+        assertThat(entities.size(), is(0));
+
+        EntitySpans unlimited = service.entities(document, null, new EntityLimits.Builder().maxTime(TimeValue.timeValueMinutes(1)).build());
+        assertThat(unlimited.limited(), is(false));
+        assertThat(positions(unlimited), is(positions(service.entities(document, null))));
+    }
+
+    @Test
+    public void testThatTimedOutExtractionKeepsAllTypesOfCompletedPieces() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings().put("opennlp.chunk_size", 200));
+        String document = ModelTestHelper.document(new Random(15), 3000, 5);
+        long startNanos = System.nanoTime();
+        List<String> unlimited = typedPositions(service.entities(document, null));
+        long nanos = System.nanoTime() - startNanos;
+
+        // whenever the time is exceeded, the entities are the ones of the first pieces, of all types
+        for (int i = 1; i < 8; i++) {
+            EntityLimits limits = new EntityLimits.Builder().maxTime(TimeValue.timeValueNanos(nanos * i / 8)).build();
+            List<String> limited = typedPositions(service.entities(document, null, limits));
+            assertThat(limited, is(unlimited.subList(0, limited.size())));
+        }
+    }
+
+    @Test
+    public void testThatLimitedContentsCanBeSkipped() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings());
+        String content = "Jack Nicholson and Kobe Bryant will be in Munich tomorrow";
+
+        EntityLimits limits = new EntityLimits.Builder().maxChars(20).onLimit("skip").build();
+        List<EntitySpans> batch = service.entitiesBatch(Arrays.asList("Kobe Bryant", content), null, limits);
+        assertThat(batch.get(0).limited(), is(false));
+        assertThat(batch.get(0).size(), is(greaterThan(0)));
+        assertThat(batch.get(1).limited(), is(true));
+        assertThat(batch.get(1).size(), is(0));
+    }
+
+    @Test
+    public void testThatLimitedExtractionDoesNotWaitForModels() throws Exception {
+        // the models are not loaded before the service is started
+        OpenNlpService service = new OpenNlpService(ModelTestHelper.settings().put("opennlp.models.ready_timeout", "1m").build());
+        services.add(service);
+
+        long startNanos = System.nanoTime();
+        EntitySpans entities = service.entities("Kobe Bryant", null, new EntityLimits.Builder().maxTime(TimeValue.timeValueMillis(10)).build());
+        assertThat(entities.limited(), is(true));
+        assertThat(entities.size(), is(0));
+        assertThat(System.nanoTime() - startNanos, is(lessThan(TimeValue.timeValueSeconds(30).nanos())));
+    }
+
+    @Test
+    public void testThatTokenizerCanBeConfigured() throws Exception {
+        String content = "Kobe Bryant was in Munich yesterday.";
+        OpenNlpService simpleService = startService(ModelTestHelper.settings());
+        assertThat(simpleService.tokenizer(), is(instanceOf(SimpleContentTokenizer.class)));
+
+        OpenNlpService modelService = startService(ModelTestHelper.settings()
+                .put("opennlp.models.tokenizer.file", ModelTestHelper.tokenizerModelFile().getAbsolutePath()));
+        assertThat(modelService.tokenizer(), is(instanceOf(ModelContentTokenizer.class)));
+        // the tokenizer model is no entity type
+        assertThat(modelService.modelTypes(), containsInAnyOrder(ModelTestHelper.TYPES));
+        assertThat(modelService.tokenize(content), is(simpleService.tokenize(content)));
+
+        OpenNlpService whitespaceService = startService(ModelTestHelper.settings().put("opennlp.tokenizer", "whitespace"));
+        assertThat(whitespaceService.tokenizer(), is(instanceOf(WhitespaceContentTokenizer.class)));
+        assertThat(whitespaceService.tokenize(content).get("name"), contains("Kobe Bryant"));
+    }
+
+    @Test(expected = ElasticSearchIllegalArgumentException.class)
+    public void testThatModelTokenizerNeedsModelFile() throws Exception {
+        new OpenNlpService(ModelTestHelper.settings().put("opennlp.tokenizer", "model").build());
+    }
+
+    @Test
+    public void testThatEntitiesAreFoundPerSentence() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings()
+                .put("opennlp.models.sentence.file", ModelTestHelper.sentenceModelFile().getAbsolutePath()));
+        assertThat(service.sentenceSplitter(), is(notNullValue()));
+        assertThat(service.modelTypes(), containsInAnyOrder(ModelTestHelper.TYPES));
+
+        String document = ModelTestHelper.document(new Random(12), 300, 4);
+        TokenOffsets sentences = new TokenOffsets();
+        service.sentenceSplitter().split(document, sentences);
+        assertThat(sentences.size(), is(greaterThan(10)));
+
+        // the offsets are the ones of the document, and no entity spans two sentences
+        EntitySpans entities = service.entities(document, null);
+        assertThat(entities.size(), is(greaterThan(0)));
+        for (int i = 0; i < entities.size(); i++) {
+            boolean inSentence = false;
+            for (int s = 0; s < sentences.size(); s++) {
+                inSentence |= sentences.start(s) <= entities.start(i) && entities.end(i) <= sentences.end(s);
+            }
+            assertThat(entities.text(document, i), inSentence, is(true));
+        }
+
+        // the adaptive data is cleared between the documents, so a batch finds the same entities
+        List<String> documents = Lists.newArrayList();
+        Random random = new Random(13);
+        for (int i = 0; i < 5; i++) {
+            documents.add(ModelTestHelper.document(random, 100, 4));
+        }
+        List<EntitySpans> batch = service.entitiesBatch(documents, null);
+        for (int i = 0; i < documents.size(); i++) {
+            assertThat(positions(batch.get(i)), is(positions(service.entities(documents.get(i), null))));
+        }
+    }
+
+    @Test
+    public void testThatLargeBatchesAreExtractedInParts() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings().put("opennlp.batch.max_tokens", 100));
+        List<String> documents = Lists.newArrayList();
+        Random random = new Random(14);
+        int maxDocumentTokens = 0;
+        for (int i = 0; i < 40; i++) {
+            int tokens = 10 + random.nextInt(50);
+            maxDocumentTokens = Math.max(maxDocumentTokens, tokens);
+            documents.add(ModelTestHelper.document(random, tokens, 4));
+        }
+
+        List<EntitySpans> batch = service.entitiesBatch(documents, null);
+
+        // the tokens of all documents are never held at once, only up to the limit plus the last document
+        assertThat(service.stats().batches(), greaterThan(5L));
+        assertThat(service.stats().maxBatchTokens(), lessThan((long) 100 + maxDocumentTokens));
+        for (int i = 0; i < documents.size(); i++) {
+            assertThat(positions(batch.get(i)), is(positions(service.entities(documents.get(i), null))));
+        }
+    }
+
+    @Test
+    public void testThatStatsAreCollected() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings()
+                .put("opennlp.cache.size", "1mb")
+                .put("opennlp.chunk_size", 500));
+        Random random = new Random(10);
+        List<String> documents = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            documents.add(ModelTestHelper.document(random, 50, 4));
+        }
+        documents.add(ModelTestHelper.document(random, 400, 4));
+
+        int entities = 0;
+        for (Map<String, Set<String>> namedEntities : service.tokenizeBatch(documents)) {
+            for (Set<String> typeEntities : namedEntities.values()) {
+                entities += typeEntities.size();
+            }
+        }
+        service.tokenize(documents.get(0));
+
+        OpenNlpStats stats = service.stats();
+        assertThat(stats.documents(), is(7L));
+        assertThat(stats.entities(), greaterThanOrEqualTo((long) entities));
+        // the long document is split into chunks, the cached one is not tokenized again
+        OpenNlpStats.ModelStats nameStats = stats.model("name");
+        assertThat(nameStats.documents(), greaterThan(6L));
+        assertThat(nameStats.tokens(), is(stats.tokens()));
+        assertThat(nameStats.entities(), greaterThan(0L));
+        // the size is estimated when the model is loaded, not per stats request
+        assertThat(nameStats.heapSizeInBytes(), greaterThan(0L));
+
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        String json = stats.toXContent(builder, ToXContent.EMPTY_PARAMS).endObject().string();
+        assertThat(json, containsString("\"documents\":7"));
+        assertThat(json, containsString("\"hits\":1"));
+        assertThat(json, containsString("\"location\":{\"documents\""));
+        assertThat(json, containsString("\"heap_size_in_bytes\""));
+    }
+
+    @Test
+    public void testThatSlowContentsAreLogged() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings()
+                .put("opennlp.chunk_size", 500)
+                .put("opennlp.slowlog.threshold.extract.warn", "0ms")
+                .put("opennlp.slowlog.threshold.find.warn", "1h"));
+        OpenNlpService quietService = startService(ModelTestHelper.settings());
+        String document = ModelTestHelper.document(new Random(11), 400, 4);
+
+        final List<String> messages = Lists.newArrayList();
+        AppenderSkeleton appender = new AppenderSkeleton() {
+            @Override
+            protected void append(LoggingEvent event) {
+                if (event.getLoggerName().endsWith("opennlp.slowlog")) {
+                    messages.add(event.getLevel() + " " + event.getRenderedMessage());
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public boolean requiresLayout() {
+                return false;
+            }
+        };
+        Logger.getRootLogger().addAppender(appender);
+        try {
+            assertThat(quietService.slowLog().enabled(), is(false));
+            quietService.tokenize(document);
+            assertThat(messages.isEmpty(), is(true));
+
+            service.entitiesBatch(Lists.newArrayList(document, "Kobe Bryant"), null, EntityLimits.NONE, "[articles][article][1] field [content]");
+        } finally {
+            Logger.getRootLogger().removeAppender(appender);
+        }
+
+        // one message per content, the chunks of the long one are summed up
+        assertThat(messages.size(), is(2));
+        assertThat(messages.get(0), startsWith("WARN [articles][article][1] field [content] took["));
+        assertThat(messages.get(0), containsString("chars[" + document.length() + "], tokens[" + SimpleTokenizer.INSTANCE.tokenize(document).length + "]"));
+        assertThat(messages.get(0), containsString("find[date["));
+        assertThat(messages.get(1), containsString("chars[11], tokens[2]"));
+    }
+
+    @Test
+    public void testThatBatchFindsSameEntitiesAsSingleDocuments() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings());
+        OpenNlpService batchService = startService(ModelTestHelper.settings()
+                .put("opennlp.chunk_size", 500)
+                .put("opennlp.cache.size", "1mb")
+                .put("opennlp.parallel_models", true)
+                .put("opennlp.parallel_models.min_tokens", 50)
+                .put("opennlp.parallel_models.size", 2));
+
+        Random random = new Random(6);
+        List<String> documents = Lists.newArrayList();
+        for (int i = 0; i < 20; i++) {
+            documents.add(ModelTestHelper.document(random, 10 + random.nextInt(300), 4));
+        }
+        // one document is cached before and one is in the batch twice
+        batchService.tokenize(documents.get(3));
+        documents.add(documents.get(5));
+
+        List<Map<String, Set<String>>> entities = batchService.tokenizeBatch(documents);
+        assertThat(entities.size(), is(documents.size()));
+        for (int i = 0; i < documents.size(); i++) {
+            assertThat("document " + i, entities.get(i), is(equalTo(service.tokenize(documents.get(i)))));
+        }
+        assertThat(batchService.cache().hits(), is(1L));
+    }
+
+    @Test
+    public void testThatCacheReturnsEntitiesOfDuplicateContent() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings().put("opennlp.cache.size", "1mb"));
+        String document = ModelTestHelper.document(new Random(3), 200, 5);
+
+        Map<String, Set<String>> entities = service.tokenize(document);
+        assertThat(service.cache().misses(), is(1L));
+        assertThat(service.cache().hits(), is(0L));
+
+        assertThat(service.tokenize(new String(document.toCharArray())), is(equalTo(entities)));
+        assertThat(service.cache().hits(), is(1L));
+
+        service.tokenize(document + " Munich");
+        assertThat(service.cache().misses(), is(2L));
+        assertThat(service.cache().count(), is(2L));
+    }
+
+    @Test
+    public void testThatCacheIsBoundedBySize() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings().put("opennlp.cache.size", "2kb"));
+        Random random = new Random(4);
+        for (int i = 0; i < 50; i++) {
+            service.tokenize(ModelTestHelper.document(random, 50, 3));
+        }
+        assertThat(service.cache().evictions(), greaterThan(0L));
+        assertThat(service.cache().count(), lessThan(50L));
+    }
+
+    @Test
+    public void testThatReloadSwapsModelsWhileTokenizing() throws Exception {
+        final OpenNlpService service = startService(ModelTestHelper.settings().put("opennlp.cache.size", "1mb"));
+        final String document = ModelTestHelper.document(new Random(5), 300, 4);
+        final Map<String, Set<String>> expected = service.tokenize(document);
+        TokenNameFinderModel previousModel = service.models().model("name");
+        long previousVersion = service.models().version();
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (running.get()) {
+                            assertThat(service.tokenize(document), is(equalTo(expected)));
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        try {
+            for (int i = 0; i < 3; i++) {
+                for (String type : service.modelTypes()) {
+                    service.reload(type);
+                }
+            }
+        } finally {
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        assertThat(failure.get(), is(nullValue()));
+        assertThat(service.models().model("name"), is(not(sameInstance(previousModel))));
+        assertThat(service.models().version(), is(previousVersion + 9));
+        assertThat(service.tokenize(document), is(equalTo(expected)));
+    }
+
+    @Test(expected = ElasticSearchIllegalArgumentException.class)
+    public void testThatReloadOfUnknownTypeFails() throws Exception {
+        startService(ModelTestHelper.settings()).reload("organization");
+    }
+
+    @Test
+    public void testThatOnlySelectedTypesAreExtracted() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings().put("opennlp.cache.size", "1mb"));
+        String document = ModelTestHelper.document(new Random(7), 200, 3);
+        Map<String, Set<String>> all = service.tokenize(document);
+
+        Map<String, Set<String>> locations = service.tokenize(document, ImmutableSet.of("location", "organization"));
+        assertThat(locations.keySet(), contains("location"));
+        assertThat(all.get("location").containsAll(locations.get("location")), is(true));
+        // the selection is part of the cache key
+        assertThat(service.cache().count(), is(2L));
+    }
+
+    @Test(expected = OpenNlpModelsNotReadyException.class)
+    public void testThatTokenizingFailsFastWhileModelsAreLoading() throws Exception {
+        OpenNlpService service = new OpenNlpService(ModelTestHelper.settings().put("opennlp.models.ready_timeout", 0).build());
+        services.add(service);
+        service.tokenize("Kobe Bryant was in Munich yesterday");
+    }
+
+    @Test
+    public void testThatTokenizingWaitsForModelsToBeLoaded() throws Exception {
+        final OpenNlpService service = new OpenNlpService(ModelTestHelper.settings().build());
+        services.add(service);
+        final AtomicReference<Map<String, Set<String>>> entities = new AtomicReference<Map<String, Set<String>>>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                entities.set(service.tokenize("Kobe Bryant was in Munich yesterday"));
+            }
+        };
+        thread.start();
+
+        assertThat(service.registry().ready(), is(false));
+        service.start();
+        thread.join();
+        assertThat(entities.get().keySet(), containsInAnyOrder(ModelTestHelper.TYPES));
+    }
+
+    @Test
+    public void testThatFailedModelsAreReported() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings().put("opennlp.models.date.file", "/does/not/exist.bin"));
+
+        assertThat(service.registry().ready(), is(true));
+        assertThat(service.registry().failures().keySet(), contains("date"));
+        assertThat(service.models().models().keySet(), containsInAnyOrder("name", "location"));
+        assertThat(service.tokenize("Kobe Bryant was in Munich yesterday").keySet(), containsInAnyOrder("name", "location"));
+
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        String json = service.stats().toXContent(builder, ToXContent.EMPTY_PARAMS).endObject().string();
+        assertThat(json, containsString("\"loading\":[]"));
+        assertThat(json, containsString("\"failures\":{\"date\":"));
+        assertThat(json, containsString("/does/not/exist.bin"));
+    }
+
+    @Test
+    public void testThatModelsCanBeLoadedLazily() throws Exception {
+        OpenNlpService service = startService(ModelTestHelper.settings().put("opennlp.models.lazy", true));
+
+        assertThat(service.registry().ready(), is(true));
+        assertThat(service.models().models().isEmpty(), is(true));
+
+        // only the models of the used types are loaded, documents wait for them
+        Map<String, Set<String>> entities = service.tokenize("Kobe Bryant was in Munich yesterday", ImmutableSet.of("location"));
+        assertThat(entities.get("location"), contains("Munich"));
+        assertThat(service.models().models().keySet(), contains("location"));
+
+        service.load(service.modelTypes());
+        assertThat(service.registry().awaitReady(TimeValue.timeValueMinutes(1)), is(true));
+        assertThat(service.models().models().keySet(), containsInAnyOrder(ModelTestHelper.TYPES));
+    }
+
+    private List<String> typedPositions(EntitySpans entities) {
+        List<String> positions = Lists.newArrayList();
+        for (int i = 0; i < entities.size(); i++) {
+            positions.add(entities.type(i) + " " + entities.start(i) + " " + entities.end(i));
+        }
+        return positions;
+    }
+
+    private List<String> positions(EntitySpans entities) {
+        List<String> positions = Lists.newArrayList();
+        for (int i = 0; i < entities.size(); i++) {
+            positions.add(entities.start(i) + " " + entities.end(i));
+        }
+        return positions;
+    }
+
+    private OpenNlpService startService(ImmutableSettings.Builder settingsBuilder) {
+        Settings settings = settingsBuilder.build();
+        LogConfigurator.configure(settings);
+        OpenNlpService service = new OpenNlpService(settings);
+        services.add(service);
+        return service.start();
+    }
+}
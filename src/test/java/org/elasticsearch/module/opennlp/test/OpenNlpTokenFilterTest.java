@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.module.opennlp.test;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.common.collect.ImmutableSet;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.common.logging.log4j.LogConfigurator;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.analysis.opennlp.OpenNlpTokenFilter;
+import org.elasticsearch.service.opennlp.OpenNlpModelsNotReadyException;
+import org.elasticsearch.service.opennlp.OpenNlpService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+
+public class OpenNlpTokenFilterTest {
+
+    private OpenNlpService openNlpService;
+
+    @Before
+    public void startService() throws Exception {
+        Settings settings = ModelTestHelper.settings().build();
+        LogConfigurator.configure(settings);
+        openNlpService = new OpenNlpService(settings).start();
+    }
+
+    @After
+    public void closeService() {
+        openNlpService.close();
+    }
+
+    @Test
+    public void testThatEntityTokensAreAddedAtTheirPositions() throws Exception {
+        List<String> tokens = tokens("Kobe Bryant was in Munich yesterday", null);
+        assertThat(tokens, contains(
+                "Kobe/word/1/1/0-4", "Kobe Bryant/name/0/2/0-11", "Bryant/word/1/1/5-11", "was/word/1/1/12-15",
+                "in/word/1/1/16-18", "Munich/word/1/1/19-25", "Munich/location/0/1/19-25",
+                "yesterday/word/1/1/26-35", "yesterday/date/0/1/26-35"));
+    }
+
+    @Test
+    public void testThatOnlySelectedTypesAreAdded() throws Exception {
+        List<String> tokens = tokens("Kobe Bryant was in Munich yesterday", ImmutableSet.of("location"));
+        assertThat(tokens, contains("Kobe/word/1/1/0-4", "Bryant/word/1/1/5-11", "was/word/1/1/12-15",
+                "in/word/1/1/16-18", "Munich/word/1/1/19-25", "Munich/location/0/1/19-25", "yesterday/word/1/1/26-35"));
+    }
+
+    @Test
+    public void testThatFilterCanBeReused() throws Exception {
+        WhitespaceTokenizer tokenizer = new WhitespaceTokenizer(Version.LUCENE_46, new StringReader("Kobe Bryant"));
+        TokenStream stream = new OpenNlpTokenFilter(tokenizer, openNlpService, null);
+        assertThat(consume(stream), contains("Kobe/word/1/1/0-4", "Kobe Bryant/name/0/2/0-11", "Bryant/word/1/1/5-11"));
+
+        tokenizer.setReader(new StringReader("in Munich"));
+        assertThat(consume(stream), contains("in/word/1/1/0-2", "Munich/word/1/1/3-9", "Munich/location/0/1/3-9"));
+    }
+
+    @Test
+    public void testThatTokensArePassedOnWhileModelsAreLoading() throws Exception {
+        // not started, so the models are still loading
+        OpenNlpService loadingService = new OpenNlpService(ModelTestHelper.settings().put("opennlp.models.ready_timeout", 0).build());
+        try {
+            WhitespaceTokenizer tokenizer = new WhitespaceTokenizer(Version.LUCENE_46, new StringReader("Kobe Bryant"));
+            TokenStream stream = new OpenNlpTokenFilter(tokenizer, loadingService, null);
+            assertThat(consume(stream), contains("Kobe/word/1/1/0-4", "Bryant/word/1/1/5-11"));
+
+            tokenizer = new WhitespaceTokenizer(Version.LUCENE_46, new StringReader("Kobe Bryant"));
+            try {
+                consume(new OpenNlpTokenFilter(tokenizer, loadingService, null, true));
+                fail("waiting for the models should fail after the ready timeout");
+            } catch (OpenNlpModelsNotReadyException e) {
+                // expected
+            }
+        } finally {
+            loadingService.close();
+        }
+    }
+
+    private List<String> tokens(String text, Collection<String> types) throws Exception {
+        WhitespaceTokenizer tokenizer = new WhitespaceTokenizer(Version.LUCENE_46, new StringReader(text));
+        return consume(new OpenNlpTokenFilter(tokenizer, openNlpService, types));
+    }
+
+    private List<String> consume(TokenStream stream) throws Exception {
+        CharTermAttribute term = stream.getAttribute(CharTermAttribute.class);
+        TypeAttribute type = stream.getAttribute(TypeAttribute.class);
+        PositionIncrementAttribute positionIncrement = stream.getAttribute(PositionIncrementAttribute.class);
+        PositionLengthAttribute positionLength = stream.getAttribute(PositionLengthAttribute.class);
+        OffsetAttribute offset = stream.getAttribute(OffsetAttribute.class);
+
+        List<String> tokens = Lists.newArrayList();
+        stream.reset();
+        while (stream.incrementToken()) {
+            tokens.add(term + "/" + type.type() + "/" + positionIncrement.getPositionIncrement() + "/" +
+                    positionLength.getPositionLength() + "/" + offset.startOffset() + "-" + offset.endOffset());
+        }
+        stream.end();
+        stream.close();
+        return tokens;
+    }
+}
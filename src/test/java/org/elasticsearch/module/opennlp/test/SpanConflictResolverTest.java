@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2013 Alexander Reelsen <alr@spinscale.de>
+ *
+ * This file is part of elasticsearch-plugin-opennlp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.module.opennlp.test;
+
+import opennlp.tools.util.Span;
+import org.elasticsearch.common.collect.Lists;
+import org.elasticsearch.service.opennlp.SpanConflictResolver;
+import org.elasticsearch.service.opennlp.models.TextAnnotation;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+public class SpanConflictResolverTest {
+
+    // sorted, the index is the type id
+    private static final String[] TYPES = { "date", "location", "name" };
+
+    @Test
+    public void testThatMoreProbableOverlappingSpanWins() {
+        SpanConflictResolver resolver = new SpanConflictResolver();
+        resolver.add(0, 2, 0.5, 2);
+        resolver.add(1, 3, 0.9, 1);
+        resolver.add(5, 6, 0.3, 0);
+        resolver.add(5, 6, 0.2, 2);
+
+        assertThat(resolver.resolve(), is(2));
+        assertThat(toStrings(resolver), contains("location [1..3) 0.9", "date [5..6) 0.3"));
+    }
+
+    @Test
+    public void testThatResultsAreEqualToLegacyAlgorithm() {
+        Random random = new Random(0);
+        SpanConflictResolver resolver = new SpanConflictResolver(1);
+        for (int iteration = 0; iteration < 2000; iteration++) {
+            resolver.clear();
+            List<TextAnnotation> textAnnotations = Lists.newArrayList();
+            int candidates = random.nextInt(60);
+            int maxStart = 1 + random.nextInt(100);
+            for (int i = 0; i < candidates; i++) {
+                int start = random.nextInt(maxStart);
+                int end = start + 1 + random.nextInt(5);
+                // only a few distinct probabilities, so that ties happen as well
+                double prob = random.nextInt(8) / 8.0;
+                int typeId = random.nextInt(TYPES.length);
+                resolver.add(start, end, prob, typeId);
+                textAnnotations.add(new TextAnnotation(TYPES[typeId], new Span(start, end, TYPES[typeId]), prob));
+            }
+
+            if (textAnnotations.size() > 0) {
+                legacyRemoveConflicts(textAnnotations);
+            }
+            resolver.resolve();
+
+            List<String> expected = Lists.newArrayList();
+            for (TextAnnotation textAnnotation : textAnnotations) {
+                expected.add(textAnnotation.getType() + " [" + textAnnotation.getSpan().getStart() + ".." +
+                        textAnnotation.getSpan().getEnd() + ") " + textAnnotation.getProb());
+            }
+            assertThat("iteration " + iteration, toStrings(resolver), is(expected));
+        }
+    }
+
+    private List<String> toStrings(SpanConflictResolver resolver) {
+        List<String> result = Lists.newArrayList();
+        for (int i = 0; i < resolver.size(); i++) {
+            result.add(TYPES[resolver.typeId(i)] + " [" + resolver.start(i) + ".." + resolver.end(i) + ") " + resolver.prob(i));
+        }
+        return result;
+    }
+
+    /* The algorithm OpenNlpService used before, copied from the Taming Text book */
+    private void legacyRemoveConflicts(List<TextAnnotation> allTextAnnotations) {
+        Collections.sort(allTextAnnotations);
+        List<TextAnnotation> stack = new ArrayList<TextAnnotation>();
+        stack.add(allTextAnnotations.get(0));
+        for (int ai = 1; ai < allTextAnnotations.size(); ai++) {
+            TextAnnotation curr = allTextAnnotations.get(ai);
+            boolean deleteCurr = false;
+            for (int ki = stack.size() - 1; ki >= 0; ki--) {
+                TextAnnotation prev = stack.get(ki);
+                if (prev.getSpan().equals(curr.getSpan())) {
+                    if (prev.getProb() > curr.getProb()) {
+                        deleteCurr = true;
+                        break;
+                    } else {
+                        allTextAnnotations.remove(stack.remove(ki));
+                        ai--;
+                    }
+                } else if (prev.getSpan().intersects(curr.getSpan())) {
+                    if (prev.getProb() > curr.getProb()) {
+                        deleteCurr = true;
+                        break;
+                    } else {
+                        allTextAnnotations.remove(stack.remove(ki));
+                        ai--;
+                    }
+                } else if (prev.getSpan().contains(curr.getSpan())) {
+                    break;
+                } else {
+                    stack.remove(ki);
+                }
+            }
+            if (deleteCurr) {
+                allTextAnnotations.remove(ai);
+                ai--;
+                deleteCurr = false;
+            } else {
+                stack.add(curr);
+            }
+        }
+    }
+}